@@ -0,0 +1,206 @@
+/*
+ * Copyright (C) 2016 Dardle Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package au.com.dardle.widget;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.WorkerThread;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+
+/**
+ * Difference between two lists of {@link BadgeModel}, matched by id.
+ * <p>
+ * <p>Badges of the new list are either inserted, or kept from the old list. Kept badges whose old
+ * positions form the longest increasing subsequence stay where they are, the others are moved, so a
+ * reorder uses the fewest possible moves.</p>
+ */
+final class BadgeDiff {
+    private final int[] mNewToOld;
+    private final boolean[] mMoved;
+    private final boolean[] mChanged;
+    private final int[] mRemoved;
+    private final boolean mStructural;
+    private final boolean mContentChanged;
+
+    private BadgeDiff(int[] newToOld, boolean[] moved, boolean[] changed, int[] removed, boolean structural,
+                      boolean contentChanged) {
+        mNewToOld = newToOld;
+        mMoved = moved;
+        mChanged = changed;
+        mRemoved = removed;
+        mStructural = structural;
+        mContentChanged = contentChanged;
+    }
+
+    /**
+     * Check that the ids of the given models are unique, as required to calculate a difference
+     *
+     * @param models Models to check
+     * @throws IllegalArgumentException If two models have the same id
+     */
+    static void checkIds(@NonNull List<BadgeModel> models) {
+        final HashSet<Long> ids = new HashSet<>(models.size() * 2);
+        for (int i = 0; i < models.size(); i++) {
+            final long id = models.get(i).getId();
+            if (!ids.add(id)) {
+                throw new IllegalArgumentException("Duplicate badge id " + id);
+            }
+        }
+    }
+
+    /**
+     * Calculate the difference between two lists. This may take a while for long lists, and doesn't
+     * touch any view, so it can run on a background thread.
+     *
+     * @param oldModels Currently displayed models
+     * @param newModels Models to display, whose ids have been checked with {@link #checkIds(List)}
+     * @return The difference between both lists
+     */
+    @WorkerThread
+    @NonNull
+    static BadgeDiff calculate(@NonNull List<BadgeModel> oldModels, @NonNull List<BadgeModel> newModels) {
+        final int oldSize = oldModels.size();
+        final int newSize = newModels.size();
+
+        final HashMap<Long, Integer> oldPositions = new HashMap<>(oldSize * 2);
+        for (int i = 0; i < oldSize; i++) {
+            oldPositions.put(oldModels.get(i).getId(), i);
+        }
+
+        // Match the new models with the old ones
+        final int[] newToOld = new int[newSize];
+        final boolean[] kept = new boolean[oldSize];
+        final boolean[] changed = new boolean[newSize];
+        boolean contentChanged = false;
+        int keptCount = 0;
+        for (int i = 0; i < newSize; i++) {
+            final BadgeModel newModel = newModels.get(i);
+            final Integer oldPosition = oldPositions.get(newModel.getId());
+            if (oldPosition == null) {
+                newToOld[i] = -1;
+                continue;
+            }
+
+            kept[oldPosition] = true;
+            keptCount++;
+            newToOld[i] = oldPosition;
+            if (!oldModels.get(oldPosition).hasSameContent(newModel)) {
+                changed[i] = true;
+                contentChanged = true;
+            }
+        }
+
+        final int[] removed = new int[oldSize - keptCount];
+        for (int i = 0, j = 0; i < oldSize; i++) {
+            if (!kept[i]) {
+                removed[j++] = i;
+            }
+        }
+
+        final boolean[] moved = findMoved(newToOld, keptCount);
+        boolean structural = removed.length > 0 || keptCount < newSize;
+        for (int i = 0; i < newSize && !structural; i++) {
+            structural = moved[i];
+        }
+
+        return new BadgeDiff(newToOld, moved, changed, removed, structural, contentChanged);
+    }
+
+    /**
+     * Kept badges which are not part of the longest increasing subsequence of old positions have to move
+     */
+    static boolean[] findMoved(int[] newToOld, int keptCount) {
+        final int newSize = newToOld.length;
+        final boolean[] moved = new boolean[newSize];
+
+        // Patience sorting: tails[k] is the new position ending the smallest increasing run of length k + 1
+        final int[] tails = new int[keptCount];
+        final int[] previous = new int[newSize];
+        int length = 0;
+        for (int i = 0; i < newSize; i++) {
+            final int oldPosition = newToOld[i];
+            if (oldPosition < 0) {
+                continue;
+            }
+
+            int low = 0;
+            int high = length;
+            while (low < high) {
+                final int mid = (low + high) >>> 1;
+                if (newToOld[tails[mid]] < oldPosition) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+
+            previous[i] = low > 0 ? tails[low - 1] : -1;
+            tails[low] = i;
+            if (low == length) {
+                length++;
+            }
+
+            moved[i] = true;
+        }
+
+        // Badges of the subsequence stay in place
+        for (int i = length > 0 ? tails[length - 1] : -1; i >= 0; i = previous[i]) {
+            moved[i] = false;
+        }
+
+        return moved;
+    }
+
+    /**
+     * @return True if nothing has to be updated at all
+     */
+    boolean isEmpty() {
+        return !mStructural && !mContentChanged;
+    }
+
+    /**
+     * @return True if badges are inserted, removed or moved
+     */
+    boolean isStructural() {
+        return mStructural;
+    }
+
+    /**
+     * @param newPosition Position in the new list
+     * @return Position of the badge in the old list, or -1 if it is inserted
+     */
+    int getOldPosition(int newPosition) {
+        return mNewToOld[newPosition];
+    }
+
+    boolean isMoved(int newPosition) {
+        return mMoved[newPosition];
+    }
+
+    boolean isChanged(int newPosition) {
+        return mChanged[newPosition];
+    }
+
+    /**
+     * @return Positions in the old list of the removed badges, in ascending order
+     */
+    int[] getRemovedPositions() {
+        return mRemoved;
+    }
+}
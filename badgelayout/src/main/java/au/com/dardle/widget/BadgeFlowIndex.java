@@ -0,0 +1,278 @@
+/*
+ * Copyright (C) 2016 Dardle Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package au.com.dardle.widget;
+
+import java.util.Arrays;
+
+/**
+ * Index of badge sizes and their positions when wrapped onto lines of a maximum width, with a fixed
+ * spacing between badges and between lines.
+ * <p>
+ * <p>Lines are broken greedily and cached. Changing, inserting or removing badge k only invalidates the
+ * lines from the one holding badge k - 1, as badge k may now fit at its end, and those lines are broken
+ * again lazily the next time a position is needed.</p>
+ */
+final class BadgeFlowIndex {
+    private int[] mWidths = new int[16];
+    private int[] mHeights = new int[16];
+    private int mCount;
+
+    private int mMaxWidth = Integer.MAX_VALUE;
+    private int mSpacing;
+
+    // Line of each badge and its left offset in the line
+    private int[] mBadgeLines = new int[16];
+    private int[] mBadgeLefts = new int[16];
+
+    // First badge, top and height of each line
+    private int[] mLineStarts = new int[4];
+    private int[] mLineTops = new int[4];
+    private int[] mLineHeights = new int[4];
+
+    // Lines [0, mValidLineCount) are valid, they hold the badges [0, mValidCount)
+    private int mValidLineCount;
+    private int mValidCount;
+
+    int size() {
+        return mCount;
+    }
+
+    void setSpacing(int spacing) {
+        if (mSpacing != spacing) {
+            mSpacing = spacing;
+            invalidateFrom(0);
+        }
+    }
+
+    void setMaxWidth(int maxWidth) {
+        if (mMaxWidth != maxWidth) {
+            mMaxWidth = maxWidth;
+            invalidateFrom(0);
+        }
+    }
+
+    void clear() {
+        mCount = 0;
+        invalidateFrom(0);
+    }
+
+    void insert(int index) {
+        if (index < 0 || index > mCount) {
+            throw new IndexOutOfBoundsException("Invalid index " + index + ", size is " + mCount);
+        }
+
+        ensureCapacity(mCount + 1);
+        System.arraycopy(mWidths, index, mWidths, index + 1, mCount - index);
+        System.arraycopy(mHeights, index, mHeights, index + 1, mCount - index);
+        mWidths[index] = 0;
+        mHeights[index] = 0;
+        mCount++;
+        invalidateFrom(index);
+    }
+
+    void remove(int index) {
+        checkIndex(index);
+
+        System.arraycopy(mWidths, index + 1, mWidths, index, mCount - index - 1);
+        System.arraycopy(mHeights, index + 1, mHeights, index, mCount - index - 1);
+        mCount--;
+        invalidateFrom(index);
+    }
+
+    void setSize(int index, int width, int height) {
+        checkIndex(index);
+
+        if (mWidths[index] != width || mHeights[index] != height) {
+            mWidths[index] = width;
+            mHeights[index] = height;
+            invalidateFrom(index);
+        }
+    }
+
+    /**
+     * Get the left offset of a badge in its line
+     */
+    int getLeft(int index) {
+        checkIndex(index);
+
+        ensureLines();
+        return mBadgeLefts[index];
+    }
+
+    /**
+     * Get the top offset of the line holding a badge
+     */
+    int getLineTop(int index) {
+        checkIndex(index);
+
+        ensureLines();
+        return mLineTops[mBadgeLines[index]];
+    }
+
+    /**
+     * Get the height of the line holding a badge
+     */
+    int getLineHeight(int index) {
+        checkIndex(index);
+
+        ensureLines();
+        return mLineHeights[mBadgeLines[index]];
+    }
+
+    int getLineCount() {
+        ensureLines();
+        return mValidLineCount;
+    }
+
+    /**
+     * Get the width of the widest line
+     */
+    int getTotalWidth() {
+        ensureLines();
+
+        int totalWidth = 0;
+        for (int line = 0; line < mValidLineCount; line++) {
+            final int last = (line + 1 < mValidLineCount ? mLineStarts[line + 1] : mCount) - 1;
+            totalWidth = Math.max(totalWidth, mBadgeLefts[last] + mWidths[last]);
+        }
+        return totalWidth;
+    }
+
+    /**
+     * Get the height of all lines, spacing included
+     */
+    int getTotalHeight() {
+        ensureLines();
+
+        final int lastLine = mValidLineCount - 1;
+        return lastLine >= 0 ? mLineTops[lastLine] + mLineHeights[lastLine] : 0;
+    }
+
+    /**
+     * Find the badge whose line holds the given vertical offset and which starts at or before the given
+     * horizontal offset, in O(log n). The badge itself may not contain the position.
+     *
+     * @return Index of the badge, or -1 if the index is empty
+     */
+    int indexAt(int x, int y) {
+        ensureLines();
+        if (mValidLineCount == 0) {
+            return -1;
+        }
+
+        // Last line whose top is at or before y
+        int line = 0;
+        int high = mValidLineCount - 1;
+        while (line < high) {
+            final int mid = (line + high + 1) >>> 1;
+            if (mLineTops[mid] <= y) {
+                line = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+
+        // Last badge of the line whose left is at or before x
+        int index = mLineStarts[line];
+        high = (line + 1 < mValidLineCount ? mLineStarts[line + 1] : mCount) - 1;
+        while (index < high) {
+            final int mid = (index + high + 1) >>> 1;
+            if (mBadgeLefts[mid] <= x) {
+                index = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return index;
+    }
+
+    private void invalidateFrom(int index) {
+        final int previous = index - 1;
+        if (previous >= mValidCount) {
+            // Lines from there are invalid already
+            return;
+        }
+
+        // Badge index may now fit at the end of the line holding index - 1, so that line is broken again
+        if (previous < 0) {
+            mValidLineCount = 0;
+            mValidCount = 0;
+        } else {
+            mValidLineCount = mBadgeLines[previous];
+            mValidCount = mLineStarts[mValidLineCount];
+        }
+    }
+
+    private void ensureLines() {
+        if (mValidCount >= mCount) {
+            return;
+        }
+
+        int line = mValidLineCount;
+        int top = line > 0 ? mLineTops[line - 1] + mLineHeights[line - 1] + mSpacing : 0;
+        int left = 0;
+        int lineHeight = 0;
+        startLine(line, mValidCount, top);
+        for (int i = mValidCount; i < mCount; i++) {
+            if (i > mLineStarts[line] && left + mWidths[i] > mMaxWidth) {
+                // Doesn't fit, wrap onto a new line
+                mLineHeights[line] = lineHeight;
+                top += lineHeight + mSpacing;
+                line++;
+                startLine(line, i, top);
+                left = 0;
+                lineHeight = 0;
+            }
+
+            mBadgeLines[i] = line;
+            mBadgeLefts[i] = left;
+            left += mWidths[i] + mSpacing;
+            lineHeight = Math.max(lineHeight, mHeights[i]);
+        }
+        mLineHeights[line] = lineHeight;
+
+        mValidLineCount = line + 1;
+        mValidCount = mCount;
+    }
+
+    private void startLine(int line, int start, int top) {
+        if (mLineStarts.length <= line) {
+            final int newCapacity = Math.max(line + 1, mLineStarts.length * 2);
+            mLineStarts = Arrays.copyOf(mLineStarts, newCapacity);
+            mLineTops = Arrays.copyOf(mLineTops, newCapacity);
+            mLineHeights = Arrays.copyOf(mLineHeights, newCapacity);
+        }
+        mLineStarts[line] = start;
+        mLineTops[line] = top;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (mWidths.length < capacity) {
+            final int newCapacity = Math.max(capacity, mWidths.length * 2);
+            mWidths = Arrays.copyOf(mWidths, newCapacity);
+            mHeights = Arrays.copyOf(mHeights, newCapacity);
+            mBadgeLines = Arrays.copyOf(mBadgeLines, newCapacity);
+            mBadgeLefts = Arrays.copyOf(mBadgeLefts, newCapacity);
+        }
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= mCount) {
+            throw new IndexOutOfBoundsException("Invalid index " + index + ", size is " + mCount);
+        }
+    }
+}
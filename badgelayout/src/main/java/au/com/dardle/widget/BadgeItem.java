@@ -33,6 +33,7 @@ import android.view.View;
  */
 public class BadgeItem extends View {
     final Drawable mIcon;
+    final int mIconResId;
     final CharSequence mText;
 
     public BadgeItem(Context context) {
@@ -49,6 +50,7 @@ public class BadgeItem extends View {
         final TintTypedArray tintTypedArray = TintTypedArray.obtainStyledAttributes(context, attrs, R.styleable
                 .BadgeItem);
         mIcon = tintTypedArray.getDrawable(R.styleable.BadgeItem_android_icon);
+        mIconResId = tintTypedArray.getResourceId(R.styleable.BadgeItem_android_icon, 0);
         mText = tintTypedArray.getText(R.styleable.BadgeItem_android_text);
         setEnabled(tintTypedArray.getBoolean(R.styleable.BadgeItem_android_enabled, true));
         setSelected(tintTypedArray.getBoolean(R.styleable.BadgeItem_selected, false));
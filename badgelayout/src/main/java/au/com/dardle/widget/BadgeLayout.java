@@ -16,26 +16,61 @@
 
 package au.com.dardle.widget;
 
+import android.content.ComponentCallbacks2;
 import android.content.Context;
 import android.content.res.ColorStateList;
+import android.content.res.Configuration;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.drawable.BitmapDrawable;
 import android.graphics.drawable.Drawable;
+import android.net.Uri;
+import android.os.AsyncTask;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.MessageQueue;
+import android.support.annotation.DrawableRes;
+import android.support.annotation.MainThread;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
-import android.support.v4.util.Pools;
+import android.support.v4.content.ContextCompat;
+import android.support.v4.view.ViewCompat;
 import android.support.v7.widget.TintTypedArray;
+import android.text.Spanned;
+import android.text.StaticLayout;
+import android.text.TextPaint;
 import android.text.TextUtils;
 import android.util.AttributeSet;
+import android.util.TypedValue;
 import android.view.Gravity;
+import android.view.HapticFeedbackConstants;
 import android.view.MotionEvent;
 import android.view.View;
+import android.view.SoundEffectConstants;
+import android.view.ViewConfiguration;
 import android.view.ViewGroup;
+import android.view.accessibility.AccessibilityEvent;
+import android.view.accessibility.AccessibilityNodeInfo;
 import android.widget.HorizontalScrollView;
 import android.widget.ImageView;
 import android.widget.LinearLayout;
+import android.widget.OverScroller;
 import android.widget.TextView;
 
 import java.util.ArrayList;
-import java.util.Iterator;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * BadgeLayout provides a horizontal layout to display badges.
@@ -73,7 +108,51 @@ import java.util.Iterator;
  */
 
 public class BadgeLayout extends HorizontalScrollView {
-    private static final Pools.Pool<Badge> sBadgePool = new Pools.SynchronizedPool<>(16);
+    // Badges are fully reset before being pooled, so they don't hold on to any view or context
+    private static final CountingPool<Badge> sBadgePool = new CountingPool<>(16);
+
+    // Drops the caches shared by all layouts, and the views of every pool, when memory runs low. Registered
+    // once with the application context, so it neither runs once per layout nor keeps a layout alive.
+    private static Context sProcessCallbacksContext;
+    private static final ComponentCallbacks2 sProcessCallbacks = new ComponentCallbacks2() {
+        @Override
+        public void onTrimMemory(int level) {
+            if (level >= TRIM_MEMORY_RUNNING_LOW) {
+                trimPools();
+            }
+        }
+
+        @Override
+        public void onConfigurationChanged(Configuration newConfig) {
+            // Rasterized icons may depend on the configuration, e.g. the night mode. Registered before the
+            // callbacks of the layouts, so they are cleared before the layouts reload their icons.
+            IconLoader.clearRasterized();
+        }
+
+        @Override
+        public void onLowMemory() {
+            trimPools();
+        }
+    };
+
+    /**
+     * Id of badges which haven't been created from a {@link BadgeModel}
+     */
+    public static final long NO_ID = -1;
+
+    // Flags describing which parts of a badge view are out of date
+    private static final int DIRTY_LAYOUT = 1;  // Text position or content spacing
+    private static final int DIRTY_BACKGROUND = 1 << 1;
+    private static final int DIRTY_ICON = 1 << 2;
+    private static final int DIRTY_TEXT = 1 << 3;
+    private static final int DIRTY_TEXT_STYLE = 1 << 4;   // Text color or size
+    private static final int DIRTY_STATE = 1 << 5;  // Selected or enabled
+    private static final int DIRTY_INDEX = 1 << 6;  // Id or tag, not related to the view
+    private static final int DIRTY_WEIGHT = 1 << 7;  // Share of the width in fixed mode, not related to the view
+    private static final int DIRTY_ALL = DIRTY_LAYOUT | DIRTY_BACKGROUND | DIRTY_ICON | DIRTY_TEXT |
+            DIRTY_TEXT_STYLE | DIRTY_STATE;
+    // Changes which may affect the measured size of a badge
+    private static final int DIRTY_SIZE = DIRTY_ALL & ~DIRTY_STATE;
 
     /**
      * Callback interface invoked when a badge is clicked.
@@ -82,37 +161,272 @@ public class BadgeLayout extends HorizontalScrollView {
         void onBadgeClicked(Badge badge);
     }
 
-    private final LinearLayout mContentContainer;
+    /**
+     * Callback interface invoked when a badge is long clicked.
+     */
+    public interface OnBadgeLongClickedListener {
+        /**
+         * @param badge The long clicked badge
+         * @return True if the long click has been consumed, otherwise the badge is clicked once released
+         */
+        boolean onBadgeLongClicked(Badge badge);
+    }
+
+    /**
+     * Callback interface invoked when the range of visible badges changes, after a scroll or a layout
+     * pass. Meant for impression logging: badges in the range have at least one pixel on screen.
+     */
+    public interface OnVisibleBadgesChangedListener {
+        /**
+         * @param firstVisibleIndex Position of the first visible badge, or -1 if no badge is visible
+         * @param lastVisibleIndex  Position of the last visible badge, or -1 if no badge is visible
+         */
+        void onVisibleBadgesChanged(int firstVisibleIndex, int lastVisibleIndex);
+    }
+
+    private final BadgeContainer mContentContainer;
 
     private final ArrayList<Badge> mBadges = new ArrayList<>();
 
+    // Lookup of the added badges, and their positions cached in Badge.mPosition
+    private final HashMap<Long, Badge> mBadgesById = new HashMap<>();
+    private final HashMap<Object, Badge> mBadgesByTag = new HashMap<>();
+    private final PositionCache<Badge> mPositionCache = new PositionCache<Badge>() {
+        @Override
+        int getCachedPosition(Badge badge) {
+            return badge.mPosition;
+        }
+
+        @Override
+        void setCachedPosition(Badge badge, int position) {
+            badge.mPosition = position;
+        }
+    };
+
+    // Widths and offsets of all badges, whether their views are attached or not
+    private final BadgeOffsetIndex mBadgeOffsetIndex = new BadgeOffsetIndex();
+    // Lines of all badges in flow mode
+    private final BadgeFlowIndex mBadgeFlowIndex = new BadgeFlowIndex();
+
     private int mSpacing;   // pixel
 
     private int mBadgeBackgroundResId;
+    // Icons of flattened badges, packed into one bitmap
+    private final IconAtlas mIconAtlas = new IconAtlas(new Runnable() {
+        @Override
+        public void run() {
+            // Icons have moved, or the atlas bitmap has been replaced
+            for (int i = 0; i < mContentContainer.getChildCount(); i++) {
+                mContentContainer.getChildAt(i).invalidate();
+            }
+        }
+    });
+
+    // Background inflated once for the theme of the layout, and shared by the badges
+    private Drawable.ConstantState mBadgeBackgroundState;
     private int mBadgeContentSpacing;   // pixel
+    private int mBadgeIconSize; // pixel
+    private int mBadgeIconPlaceholderResId;
     private BadgeTextPosition mBadgeTextPosition;
     private ColorStateList mBadgeTextColors;
     private int mBadgeTextSize; // pixel
     private BadgeMode mBadgeMode;
+    private BadgeRenderMode mBadgeRenderMode;
+    private boolean mVirtualized;
+    private boolean mCollapseOverflow;
+    private boolean mUniformBadgeSize;
+
+    // Nesting depth of beginBatchUpdate() calls, and whether a layout was suppressed meanwhile
+    private int mBatchUpdateDepth;
+    private boolean mLayoutRequestedInBatch;
+
+    // Changes waiting to be applied to the badge views on the next frame, or before the next measure:
+    // dirty flags for all badges, plus the badges which have changed individually
+    private int mPendingDirtyFlags;
+    private final ArrayList<Badge> mDirtyBadges = new ArrayList<>();
+    private boolean mUpdateScheduled;
+    private final Runnable mUpdateRunnable = new Runnable() {
+        @Override
+        public void run() {
+            mUpdateScheduled = false;
+            flushPendingUpdates();
+        }
+    };
+
+    // Badges changed off the main thread, published to the main thread in one batch
+    private final ConcurrentLinkedQueue<Badge> mBackgroundDirtyBadges = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean mBackgroundUpdatePosted = new AtomicBoolean();
+    private final Runnable mBackgroundUpdateRunnable = new Runnable() {
+        @Override
+        public void run() {
+            mBackgroundUpdatePosted.set(false);
+            publishBackgroundUpdates();
+        }
+    };
 
+    // Models displayed after the last applied submitBadges() call, and the generation of the latest call
+    private List<BadgeModel> mSubmittedModels = Collections.emptyList();
+    private volatile int mSubmitGeneration;
+    private Executor mDiffExecutor = AsyncTask.THREAD_POOL_EXECUTOR;
+
+    // Text layouts of submitted models are prepared on this executor, if any, for at most one frame
+    private static final long TEXT_PRECOMPUTE_DEADLINE_MILLIS = 16;
+    private Executor mTextPrecomputeExecutor;
+
+    // Icons of icon sources are decoded on this executor, to fit a square slot of mBadgeIconSize pixels
+    private Executor mIconExecutor = AsyncTask.THREAD_POOL_EXECUTOR;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    // Listeners are invoked on a snapshot, rebuilt after they change, so that they may add or remove
+    // listeners while being invoked
     private final ArrayList<OnBadgeClickedListener> mOnBadgeClickedListeners = new ArrayList<>();
+    private OnBadgeClickedListener[] mOnBadgeClickedListenersSnapshot;
+    private final ArrayList<OnBadgeLongClickedListener> mOnBadgeLongClickedListeners = new ArrayList<>();
+    private OnBadgeLongClickedListener[] mOnBadgeLongClickedListenersSnapshot;
+
+    // Visible range last dispatched to the listeners, stale once badges have been inserted or removed
+    private final ArrayList<OnVisibleBadgesChangedListener> mOnVisibleBadgesChangedListeners = new ArrayList<>();
+    private int mDispatchedFirstVisible = -1;
+    private int mDispatchedLastVisible = -1;
+    private boolean mVisibleBadgesStale;
+
+    // Visible range computed by computeVisibleRange(), kept in fields so that queries don't allocate
+    private int mFirstVisible = -1;
+    private int mLastVisible = -1;
+
+    // Scroll to a badge requested before the badges have been measured, applied after the next layout
+    private int mPendingScrollBadgeIndex = -1;
+    private boolean mPendingSmoothScroll;
+
+    // Content is drawn from a hardware layer while scrolling or animating, and drawn normally again once idle
+    // for a while or when a badge changes, which would re-render the layer anyway
+    private static final long LAYER_IDLE_DELAY_MILLIS = 200;
+    private boolean mScrollingLayerEnabled;
+    private boolean mLayerActive;
+    private boolean mAnimating;
+    // Largest layer the renderer supports, the maximum texture size, known once drawn hardware accelerated
+    private int mMaxLayerWidth;
+    private int mMaxLayerHeight;
+    private final Runnable mDropLayerRunnable = new Runnable() {
+        @Override
+        public void run() {
+            dropLayer();
+        }
+    };
+
+    // Frames drawn from the layer and frames which drew the content, and whether the current frame drew it
+    private int mLayerFrameCount;
+    private int mRenderedFrameCount;
+    private boolean mContentDrawn;
+
+    // Flings end with a badge aligned to the start of the layout, predicted with the fling physics
+    private boolean mSnapToBadges;
+    private OverScroller mSnapScroller;
+    private boolean mFlung;
     private final OnClickListener mClickListener = new OnClickListener() {
         @Override
         public void onClick(View view) {
             if (view instanceof BadgeView) {
-                BadgeView badgeView = (BadgeView) view;
-                Badge badge = badgeView.mBadge;
+                dispatchBadgeClicked(((BadgeView) view).getBadge());
+            }
+        }
+    };
+    private final OnLongClickListener mLongClickListener = new OnLongClickListener() {
+        @Override
+        public boolean onLongClick(View view) {
+            return view instanceof BadgeView && dispatchBadgeLongClicked(((BadgeView) view).getBadge());
+        }
+    };
+
+    // Whether the container hit tests touches against the badge offsets instead of each view handling them
+    private boolean mHitTestClicks;
+
+    // Lets accessibility services click badge views which aren't clickable in hit test mode
+    private final View.AccessibilityDelegate mHitTestAccessibilityDelegate = new View.AccessibilityDelegate() {
+        @Override
+        @SuppressWarnings("deprecation")
+        public void onInitializeAccessibilityNodeInfo(View host, AccessibilityNodeInfo info) {
+            super.onInitializeAccessibilityNodeInfo(host, info);
+            if (host.isEnabled()) {
+                // Integer actions, as AccessibilityAction objects need API 21
+                info.setClickable(true);
+                info.addAction(AccessibilityNodeInfo.ACTION_CLICK);
+                info.setLongClickable(true);
+                info.addAction(AccessibilityNodeInfo.ACTION_LONG_CLICK);
+            }
+        }
 
-                for (int i = mOnBadgeClickedListeners.size() - 1; i >= 0; i--) {
-                    mOnBadgeClickedListeners.get(i).onBadgeClicked(badge);
+        @Override
+        public boolean performAccessibilityAction(View host, int action, Bundle args) {
+            final Badge badge = host instanceof BadgeView ? ((BadgeView) host).getBadge() : null;
+            if (badge != null && host.isEnabled()) {
+                if (action == AccessibilityNodeInfo.ACTION_CLICK) {
+                    dispatchBadgeClicked(badge);
+                    host.sendAccessibilityEvent(AccessibilityEvent.TYPE_VIEW_CLICKED);
+                    return true;
                 }
+                if (action == AccessibilityNodeInfo.ACTION_LONG_CLICK && dispatchBadgeLongClicked(badge)) {
+                    host.sendAccessibilityEvent(AccessibilityEvent.TYPE_VIEW_LONG_CLICKED);
+                    return true;
+                }
+            }
+            return super.performAccessibilityAction(host, action, args);
+        }
+    };
+
+    // Whether XML drawable icons are rendered once into bitmaps shared by the badges
+    private boolean mRasterizeIcons;
+
+
+    // Pool we use as a simple RecyclerBin, possibly shared with other layouts
+    private BadgeViewPool mBadgeViewPool = new BadgeViewPool();
+    private boolean mOwnsBadgeViewPool = true;
+
+    // Drops the measuring view when memory runs low, and reloads rasterized icons once the configuration
+    // changes. The pooled views are dropped by the process wide callbacks.
+    private final ComponentCallbacks2 mComponentCallbacks = new ComponentCallbacks2() {
+        @Override
+        public void onTrimMemory(int level) {
+            if (level >= TRIM_MEMORY_RUNNING_LOW) {
+                mMeasureBadgeView = null;
+            }
+        }
+
+        @Override
+        public void onConfigurationChanged(Configuration newConfig) {
+            if (mRasterizeIcons) {
+                updateBadges(DIRTY_ICON);
             }
         }
+
+        @Override
+        public void onLowMemory() {
+            mMeasureBadgeView = null;
+        }
     };
 
+    // Detached view used to measure badges which have no view of their own
+    private BadgeView mMeasureBadgeView;
 
-    // Pool we use as a simple RecyclerBin
-    private final Pools.Pool<BadgeView> mBadgeViewPool = new Pools.SimplePool<>(12);
+    // Number of views to keep ready in the pool, created while the main thread is idle
+    private static final long PREWARM_SLICE_NANOS = 2000000L;
+    private int mPrewarmCount;
+    private boolean mPrewarmScheduled = false;
+    private final MessageQueue.IdleHandler mPrewarmIdleHandler = new MessageQueue.IdleHandler() {
+        @Override
+        public boolean queueIdle() {
+            // Create views for at most one slice per idle callback, keeping the queue responsive
+            final long deadline = System.nanoTime() + PREWARM_SLICE_NANOS;
+            do {
+                if (mBadgeViewPool.getSize(mBadgeRenderMode) >= mPrewarmCount
+                        || !mBadgeViewPool.release(mBadgeRenderMode, (View) newBadgeView())) {
+                    mPrewarmScheduled = false;
+                    return false;
+                }
+            } while (System.nanoTime() < deadline);
+            return true;
+        }
+    };
 
 
     public BadgeLayout(Context context) {
@@ -126,10 +440,8 @@ public class BadgeLayout extends HorizontalScrollView {
     public BadgeLayout(Context context, AttributeSet attrs, int defStyleAttr) {
         super(context, attrs, defStyleAttr);
 
-        // Add the LinearLayout as the content container
-        mContentContainer = new LinearLayout(context);
-        mContentContainer.setOrientation(LinearLayout.HORIZONTAL);
-        mContentContainer.setGravity(Gravity.CENTER_VERTICAL);
+        // Add the content container
+        mContentContainer = new BadgeContainer(context);
         super.addView(mContentContainer, 0, new ViewGroup.LayoutParams(LayoutParams.WRAP_CONTENT, LayoutParams
                 .WRAP_CONTENT));
 
@@ -138,8 +450,20 @@ public class BadgeLayout extends HorizontalScrollView {
         mSpacing = tintTypedArray.getDimensionPixelSize(R.styleable.BadgeLayout_spacing, 8);
         mBadgeContentSpacing = tintTypedArray.getDimensionPixelSize(R.styleable.BadgeLayout_badgeContentSpacing, 0);
         mBadgeBackgroundResId = tintTypedArray.getResourceId(R.styleable.BadgeLayout_badgeBackground, 0);
+        mBadgeIconSize = tintTypedArray.getDimensionPixelSize(R.styleable.BadgeLayout_badgeIconSize,
+                Math.round(32 * getResources().getDisplayMetrics().density));
+        mBadgeIconPlaceholderResId = tintTypedArray.getResourceId(R.styleable.BadgeLayout_badgeIconPlaceholder, 0);
         mBadgeTextPosition = BadgeTextPosition.values()[tintTypedArray.getInt(R.styleable.BadgeLayout_badgeTextPosition, BadgeTextPosition.BOTTOM.ordinal())];
         mBadgeMode = BadgeMode.values()[tintTypedArray.getInt(R.styleable.BadgeLayout_badgeMode, BadgeMode.SCROLLABLE.ordinal())];
+        mBadgeRenderMode = BadgeRenderMode.values()[tintTypedArray.getInt(R.styleable.BadgeLayout_badgeRenderMode, BadgeRenderMode.VIEWS.ordinal())];
+        mVirtualized = tintTypedArray.getBoolean(R.styleable.BadgeLayout_virtualized, false);
+        mCollapseOverflow = tintTypedArray.getBoolean(R.styleable.BadgeLayout_collapseOverflow, false);
+        mSnapToBadges = tintTypedArray.getBoolean(R.styleable.BadgeLayout_snapToBadges, false);
+        mUniformBadgeSize = tintTypedArray.getBoolean(R.styleable.BadgeLayout_uniformBadgeSize, false);
+        mScrollingLayerEnabled = tintTypedArray.getBoolean(R.styleable.BadgeLayout_scrollingLayerEnabled, true);
+        mHitTestClicks = tintTypedArray.getBoolean(R.styleable.BadgeLayout_hitTestClicks, false);
+        mRasterizeIcons = tintTypedArray.getBoolean(R.styleable.BadgeLayout_rasterizeIcons, false);
+        mPrewarmCount = tintTypedArray.getInt(R.styleable.BadgeLayout_prewarmCount, 0);
 
         // Badge text color
         if (tintTypedArray.hasValue(R.styleable.BadgeLayout_badgeTextColor)) {
@@ -184,6 +508,16 @@ public class BadgeLayout extends HorizontalScrollView {
                 result = mBadgeMode == BadgeMode.SCROLLABLE && super.onTouchEvent(ev);
                 break;
 
+            case MotionEvent.ACTION_UP:
+            case MotionEvent.ACTION_CANCEL:
+                mFlung = false;
+                result = super.onTouchEvent(ev);
+                if (canSnap() && !mFlung) {
+                    // Released without a fling, settle on the nearest badge
+                    smoothScrollTo(getSnapScrollX(getScrollX(), 0), 0);
+                }
+                break;
+
             default:
                 result = super.onTouchEvent(ev);
                 break;
@@ -197,6 +531,135 @@ public class BadgeLayout extends HorizontalScrollView {
         return mBadgeMode == BadgeMode.SCROLLABLE && super.onInterceptTouchEvent(ev);
     }
 
+    @Override
+    protected void onAttachedToWindow() {
+        super.onAttachedToWindow();
+
+        final Context applicationContext = getContext().getApplicationContext();
+        if (sProcessCallbacksContext != applicationContext) {
+            sProcessCallbacksContext = applicationContext;
+            applicationContext.registerComponentCallbacks(sProcessCallbacks);
+        }
+        applicationContext.registerComponentCallbacks(mComponentCallbacks);
+
+        schedulePrewarm();
+    }
+
+    @Override
+    protected void onDetachedFromWindow() {
+        super.onDetachedFromWindow();
+
+        getContext().getApplicationContext().unregisterComponentCallbacks(mComponentCallbacks);
+
+        if (mPrewarmScheduled) {
+            mPrewarmScheduled = false;
+            Looper.myQueue().removeIdleHandler(mPrewarmIdleHandler);
+        }
+        mAnimating = false;
+        dropLayer();
+        mContentContainer.cancelPress();
+
+        // A layout detached by a list is usually attached again soon after, with its badge views still
+        // attached to the container, so its own pool only keeps the views it is asked to prewarm
+        if (mOwnsBadgeViewPool) {
+            mBadgeViewPool.trimToSize(mPrewarmCount);
+        }
+    }
+
+    @Override
+    protected void measureChildWithMargins(View child, int parentWidthMeasureSpec, int widthUsed,
+                                           int parentHeightMeasureSpec, int heightUsed) {
+        if (mBadgeMode == BadgeMode.SCROLLABLE && !mCollapseOverflow) {
+            super.measureChildWithMargins(child, parentWidthMeasureSpec, widthUsed, parentHeightMeasureSpec,
+                    heightUsed);
+            return;
+        }
+
+        // Lines, fixed badges or the collapsed row are limited to the width of the layout rather than scrolled
+        final MarginLayoutParams lp = (MarginLayoutParams) child.getLayoutParams();
+        final int childWidthMeasureSpec = getChildMeasureSpec(parentWidthMeasureSpec,
+                getPaddingLeft() + getPaddingRight() + lp.leftMargin + lp.rightMargin + widthUsed, lp.width);
+        final int childHeightMeasureSpec = getChildMeasureSpec(parentHeightMeasureSpec,
+                getPaddingTop() + getPaddingBottom() + lp.topMargin + lp.bottomMargin + heightUsed, lp.height);
+        child.measure(childWidthMeasureSpec, childHeightMeasureSpec);
+    }
+
+    @Override
+    protected void onLayout(boolean changed, int l, int t, int r, int b) {
+        super.onLayout(changed, l, t, r, b);
+
+        final int pendingScrollBadgeIndex = mPendingScrollBadgeIndex;
+        mPendingScrollBadgeIndex = -1;
+        if (pendingScrollBadgeIndex >= 0 && pendingScrollBadgeIndex < mBadges.size()) {
+            scrollToBadge(pendingScrollBadgeIndex, mPendingSmoothScroll);
+        }
+
+        dispatchVisibleBadgesChanged();
+    }
+
+    @Override
+    protected void onScrollChanged(int l, int t, int oldl, int oldt) {
+        super.onScrollChanged(l, t, oldl, oldt);
+
+        if (isVirtualizing()) {
+            mContentContainer.onViewportChanged();
+        }
+        dispatchVisibleBadgesChanged();
+        promoteLayer();
+    }
+
+    @Override
+    protected void onAnimationStart() {
+        super.onAnimationStart();
+
+        mAnimating = true;
+        promoteLayer();
+    }
+
+    @Override
+    protected void onAnimationEnd() {
+        super.onAnimationEnd();
+
+        mAnimating = false;
+        promoteLayer();
+    }
+
+    @Override
+    protected void dispatchDraw(Canvas canvas) {
+        if (canvas.isHardwareAccelerated()) {
+            mMaxLayerWidth = canvas.getMaximumBitmapWidth();
+            mMaxLayerHeight = canvas.getMaximumBitmapHeight();
+        }
+
+        mContentDrawn = false;
+        super.dispatchDraw(canvas);
+
+        if (mContentDrawn) {
+            mRenderedFrameCount++;
+        } else if (mLayerActive) {
+            mLayerFrameCount++;
+        }
+    }
+
+    @Override
+    public void fling(int velocityX) {
+        if (!canSnap()) {
+            super.fling(velocityX);
+            return;
+        }
+
+        // Predict where the fling would stop, and stop at the nearest badge instead
+        mFlung = true;
+        if (mSnapScroller == null) {
+            mSnapScroller = new OverScroller(getContext());
+        }
+        mSnapScroller.fling(getScrollX(), 0, velocityX, 0, 0, getMaxScrollX(), 0, 0);
+        final int finalX = mSnapScroller.getFinalX();
+        mSnapScroller.abortAnimation();
+
+        smoothScrollTo(getSnapScrollX(finalX, velocityX), 0);
+    }
+
     /**
      * Create and return a new {@link Badge}. You need to manually add this using
      * {@link #addBadge(Badge)} or a related method.
@@ -211,8 +674,15 @@ public class BadgeLayout extends HorizontalScrollView {
             badge = new Badge();
         }
 
+        // Flags left by updates made while the badge was pooled would keep it from being queued
+        badge.mBackgroundDirtyFlags.set(0);
         badge.mParent = this;
-        badge.mView = createBadgeView(badge);
+        // In virtualized mode views are only created once the badge becomes visible
+        badge.mView = isVirtualizing() ? null : obtainBadgeView(badge);
+        if (badge.mView != null) {
+            // Bound once with whatever is set on the badge until the next frame
+            badge.updateView(DIRTY_ALL);
+        }
 
         return badge;
     }
@@ -223,390 +693,2943 @@ public class BadgeLayout extends HorizontalScrollView {
      * @param badge Badge to add
      */
     public void addBadge(@NonNull Badge badge) {
+        addBadge(badge, mBadges.size());
+    }
+
+    /**
+     * Add a badge to this layout at the given position. Only the inserted badge's view is attached, the
+     * other badges are not affected.
+     *
+     * @param badge Badge to add
+     * @param index Position to insert the badge at
+     */
+    public void addBadge(@NonNull Badge badge, int index) {
         if (badge.mParent != this) {
             throw new IllegalArgumentException("Badge belongs to a different BadgeLayout");
         }
+        if (badge.mAdded) {
+            throw new IllegalArgumentException("Badge has already been added");
+        }
+        if (index < 0 || index > mBadges.size()) {
+            throw new IndexOutOfBoundsException("Invalid index " + index + ", size is " + mBadges.size());
+        }
 
-        addBadgeView(badge);
-        configureBadge(badge);
+        addBadgeView(badge, index);
+        configureBadge(badge, index);
     }
 
     /**
-     * Remove all badges from the layout.
+     * Remove a badge from the layout. Its view is recycled, and the badge should not be used afterwards.
+     *
+     * @param badge Badge to remove
+     * @return True if the badge was part of this layout
      */
-    public void removeAllBadges() {
-        // Remove all the views
-        for (int i = mContentContainer.getChildCount() - 1; i >= 0; i--) {
-            removeBadgeViewAt(i);
+    public boolean removeBadge(@NonNull Badge badge) {
+        final int index = indexOf(badge);
+        if (index < 0) {
+            return false;
         }
 
-        for (final Iterator<Badge> iterator = mBadges.iterator(); iterator.hasNext(); ) {
-            final Badge badge = iterator.next();
-            iterator.remove();
-            sBadgePool.release(badge);
-        }
+        removeBadgeAt(index);
+        return true;
     }
 
     /**
-     * Get the spacing between badge items
+     * Remove the badge at the given position. Its view is recycled, and the badge should not be used
+     * afterwards.
      *
-     * @return Spacing between badge items
+     * @param index Position of the badge to remove
      */
-    public int getSpacing() {
-        return mSpacing;
+    public void removeBadgeAt(int index) {
+        final Badge badge = mBadges.remove(index);
+        if (badge.mView != null) {
+            mContentContainer.removeView((View) badge.mView);
+            recycleBadgeView(badge.mView);
+            badge.mView = null;
+        }
+        mContentContainer.onBadgeRemoved(index);
+        mBadgeOffsetIndex.remove(index);
+        mBadgeFlowIndex.remove(index);
+        mVisibleBadgesStale = true;
+        mPositionCache.onRemoved(index);
+        unindexBadge(badge);
+
+        recycleBadge(badge);
     }
 
     /**
-     * Set the spacing between badge items
+     * Get the number of badges in the layout
      *
-     * @param spacing Spacing between badge items
+     * @return Number of badges
      */
-    public void setSpacing(int spacing) {
-        mSpacing = spacing;
-        for (int i = 1; i < mBadges.size(); i++) {
-            final Badge badge = mBadges.get(i);
-            final View view = badge.mView;
-            if (view != null) {
-                LinearLayout.LayoutParams layoutParams = (LinearLayout.LayoutParams) view.getLayoutParams();
-                layoutParams.leftMargin = mSpacing;
-            }
-        }
+    public int getBadgeCount() {
+        return mBadges.size();
     }
 
     /**
-     * Get the spacing between badge's text and image
+     * Get the badge at the given position
      *
-     * @return The spacing between badge's text and image
+     * @param index Position of the badge
+     * @return The badge at the given position
      */
-    public int getBadgeContentSpacing() {
-        return mBadgeContentSpacing;
+    @NonNull
+    public Badge getBadgeAt(int index) {
+        return mBadges.get(index);
     }
 
     /**
-     * Set the spacing between text and image
+     * Get the position of a badge. Positions are cached, so this is O(1) unless badges have been inserted
+     * or removed before the badge since the last call.
      *
-     * @param badgeContentSpacing Spacing between text and image
+     * @param badge Badge to look up
+     * @return Position of the badge, or -1 if it isn't part of this layout
      */
-    public void setBadgeContentSpacing(int badgeContentSpacing) {
-        mBadgeContentSpacing = badgeContentSpacing;
+    public int indexOf(@NonNull Badge badge) {
+        if (badge.mParent != this || !badge.mAdded) {
+            return -1;
+        }
 
-        updateBadges();
+        return mPositionCache.indexOf(mBadges, badge);
     }
 
     /**
-     * Set badge's background
+     * Find a badge by its id
      *
-     * @param badgeBackgroundResId Badge's background resource id
+     * @param id Id of the badge
+     * @return The badge with the given id, or null if there's none. If several badges share an id, the
+     * most recently added or changed one is returned.
+     * @see Badge#setId(long)
      */
-    public void setBadgeBackground(int badgeBackgroundResId) {
-        mBadgeBackgroundResId = badgeBackgroundResId;
-
-        updateBadges();
+    @Nullable
+    public Badge findBadgeById(long id) {
+        return mBadgesById.get(id);
     }
 
     /**
-     * Get badge's text position
+     * Find a badge by its tag
      *
-     * @return Badge's text position
+     * @param tag Tag of the badge
+     * @return The badge with the given tag, or null if there's none. If several badges share a tag, the
+     * most recently added or changed one is returned.
+     * @see Badge#setTag(Object)
      */
-    public BadgeTextPosition getBadgeTextPosition() {
-        return mBadgeTextPosition;
+    @Nullable
+    public Badge findBadgeByTag(@NonNull Object tag) {
+        return mBadgesByTag.get(tag);
     }
 
     /**
-     * Set badge's text position
+     * Add badges to this layout, in one layout pass. The badges will be added at the end of the list.
      *
-     * @param badgeTextPosition Badge's text position
-     * @see BadgeTextPosition
+     * @param badges Badges to add
      */
-    public void setBadgeTextPosition(BadgeTextPosition badgeTextPosition) {
-        mBadgeTextPosition = badgeTextPosition;
-
-        updateBadges();
+    public void addBadges(@NonNull Collection<Badge> badges) {
+        beginBatchUpdate();
+        try {
+            mBadges.ensureCapacity(mBadges.size() + badges.size());
+            for (Badge badge : badges) {
+                addBadge(badge);
+            }
+        } finally {
+            endBatchUpdate();
+        }
     }
 
     /**
-     * Get badge mode
+     * Replace the badges of this layout, in one layout pass. Badges which are currently in the layout
+     * and not part of the given list are removed.
      *
-     * @return Badge mode
-     * @see BadgeMode
+     * @param badges Badges to display, in order
      */
-    public BadgeMode getBadgeMode() {
-        return mBadgeMode;
+    public void setBadges(@NonNull List<Badge> badges) {
+        for (Badge badge : badges) {
+            if (badge.mParent != this) {
+                throw new IllegalArgumentException("Badge belongs to a different BadgeLayout");
+            }
+        }
+
+        beginBatchUpdate();
+        try {
+            final Set<Badge> retainedBadges = Collections.newSetFromMap(new IdentityHashMap<Badge, Boolean>());
+            retainedBadges.addAll(badges);
+
+            // Recycle the badges which are not kept, and their views. Kept badges keep their views unless
+            // the layout is virtualized, where views are only attached by the container.
+            for (Badge badge : mBadges) {
+                final boolean retained = retainedBadges.contains(badge);
+                if (badge.mView != null && (!retained || isVirtualizing())) {
+                    recycleBadgeView(badge.mView);
+                    if (retained) {
+                        badge.mView = null;
+                    }
+                }
+                if (!retained) {
+                    recycleBadge(badge);
+                }
+            }
+            mContentContainer.removeAllViews();
+            mContentContainer.resetAttachedRange();
+            clearBadges();
+
+            mBadges.ensureCapacity(badges.size());
+            for (Badge badge : badges) {
+                addBadge(badge);
+            }
+        } finally {
+            endBatchUpdate();
+        }
     }
 
     /**
-     * Set badge mode
+     * Display the given models, identified by their ids. The difference with the previously submitted
+     * models is calculated on the diff executor, then only the badges which have been inserted, removed,
+     * moved or changed are updated on the main thread. Submitting the same models again doesn't touch any
+     * view.
+     * <p>
+     * <p>Badges of this layout should only be managed through this method once it has been used. If
+     * badges have been added or removed by other means meanwhile, all badges are recreated.</p>
      *
-     * @param badgeMode Badge mode
-     * @see BadgeMode
+     * @param models Models to display, in order. Ids must be unique.
+     * @throws IllegalArgumentException If two models have the same id
+     * @see #setDiffExecutor(Executor)
+     * @see #setTextPrecomputeExecutor(Executor)
      */
-    public void setBadgeMode(BadgeMode badgeMode) {
-        mBadgeMode = badgeMode;
-    }
+    @MainThread
+    public void submitBadges(@NonNull List<BadgeModel> models) {
+        final List<BadgeModel> oldModels = mSubmittedModels;
+        final List<BadgeModel> newModels = Collections.unmodifiableList(new ArrayList<>(models));
+        BadgeDiff.checkIds(newModels);
+        final int generation = ++mSubmitGeneration;
 
-    public ColorStateList getBadgeTextColor() {
-        return mBadgeTextColors;
+        // Paint matching the one of flattened badge views, for text layouts to be prepared off the main thread
+        final Executor textPrecomputeExecutor = mBadgeRenderMode == BadgeRenderMode.FLATTENED
+                ? mTextPrecomputeExecutor : null;
+        final TextPaint textPaint = textPrecomputeExecutor != null ? newBadgeTextPaint() : null;
+
+        mDiffExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                final BadgeDiff diff = BadgeDiff.calculate(oldModels, newModels);
+                final Runnable apply = new Runnable() {
+                    private boolean mApplied = false;
+
+                    @Override
+                    public void run() {
+                        // Posted twice when text layouts are precomputed, whichever comes first wins
+                        if (mApplied) {
+                            return;
+                        }
+                        mApplied = true;
+                        mMainHandler.removeCallbacks(this);
+
+                        // A later submission supersedes this one
+                        if (generation == mSubmitGeneration && oldModels == mSubmittedModels) {
+                            applyBadgeDiff(oldModels, newModels, diff);
+                        }
+                    }
+                };
+
+                if (textPrecomputeExecutor == null || diff.isEmpty()) {
+                    mMainHandler.post(apply);
+                    return;
+                }
+
+                // Past the deadline the diff is applied anyway, remaining text is laid out while measuring
+                mMainHandler.postDelayed(apply, TEXT_PRECOMPUTE_DEADLINE_MILLIS);
+                textPrecomputeExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        for (int i = 0; i < newModels.size(); i++) {
+                            if (generation != mSubmitGeneration) {
+                                return;
+                            }
+
+                            final CharSequence text = newModels.get(i).getText();
+                            if ((diff.getOldPosition(i) < 0 || diff.isChanged(i))
+                                    && !TextUtils.isEmpty(text) && !(text instanceof Spanned)) {
+                                // Badges are measured with an unspecified width when scrollable
+                                TextLayoutCache.obtain(text.toString(), textPaint, Integer.MAX_VALUE);
+                            }
+                        }
+                        mMainHandler.post(apply);
+                    }
+                });
+            }
+        });
     }
 
     /**
-     * Set badge text color
+     * Set the executor used to calculate the difference between submitted models. Defaults to
+     * {@link AsyncTask#THREAD_POOL_EXECUTOR}.
      *
-     * @param badgeTextColor Badge's text color
+     * @param diffExecutor Executor used to calculate differences
+     * @see #submitBadges(List)
      */
-    public void setBadgeTextColor(ColorStateList badgeTextColor) {
-        mBadgeTextColors = badgeTextColor;
-
-        updateBadges();
+    public void setDiffExecutor(@NonNull Executor diffExecutor) {
+        mDiffExecutor = diffExecutor;
     }
 
     /**
-     * Get badge text size
+     * Set the executor used to lay out the text of inserted and changed badges before submitted models are
+     * applied, so that text isn't shaped on the main thread while measuring. Models are applied once their
+     * text is ready, or after one frame at the latest, in which case the remaining text is laid out while
+     * measuring as usual. Only used by the {@link BadgeRenderMode#FLATTENED} render mode, whose text
+     * layouts are cached. Disabled by default.
      *
-     * @return Badge's text size
+     * @param textPrecomputeExecutor Executor used to lay out text, or null to lay out text while measuring
+     * @see #submitBadges(List)
      */
-    public int getBadgeTextSize() {
-        return mBadgeTextSize;
+    public void setTextPrecomputeExecutor(@Nullable Executor textPrecomputeExecutor) {
+        mTextPrecomputeExecutor = textPrecomputeExecutor;
     }
 
     /**
-     * Set badge text size
+     * Start a batch update. Until the matching {@link #endBatchUpdate()}, changes to the badges and to
+     * the layout are recorded but neither update the badge views nor request a layout. Batch updates
+     * may be nested.
      *
-     * @param textSize Badge's text size
+     * @see #endBatchUpdate()
      */
-    public void setBadgeTextSize(int textSize) {
-        mBadgeTextSize = textSize;
-
-        updateBadges();
+    public void beginBatchUpdate() {
+        mBatchUpdateDepth++;
     }
 
     /**
-     * Add a {@link BadgeLayout.OnBadgeClickedListener} that will be invoked when badge is clicked.
-     * <p>
-     * <p>Components that add a listener should take care to remove it when finished via
-     * {@link #removeOnBadgeClickedListener(OnBadgeClickedListener)}.</p>
+     * End a batch update started by {@link #beginBatchUpdate()}. When the outermost batch ends, the
+     * recorded changes are applied to the badge views, followed by a single layout pass.
      *
-     * @param onBadgeClickedListener listener to add
+     * @see #beginBatchUpdate()
      */
-    public void addOnBadgeClickedListener(@NonNull OnBadgeClickedListener onBadgeClickedListener) {
-        if (!mOnBadgeClickedListeners.contains(onBadgeClickedListener)) {
-            mOnBadgeClickedListeners.add(onBadgeClickedListener);
+    public void endBatchUpdate() {
+        if (mBatchUpdateDepth == 0) {
+            throw new IllegalStateException("endBatchUpdate() called without beginBatchUpdate()");
+        }
+
+        mBatchUpdateDepth--;
+        if (mBatchUpdateDepth == 0) {
+            flushPendingUpdates();
+
+            if (mLayoutRequestedInBatch) {
+                mLayoutRequestedInBatch = false;
+                mContentContainer.requestLayout();
+            }
         }
     }
 
     /**
-     * Remove the given {@link BadgeLayout.OnBadgeClickedListener} that was previously added via
-     * {@link #addOnBadgeClickedListener(OnBadgeClickedListener)}.
-     *
-     * @param onBadgeClickedListener listener to remove
+     * Remove all badges from the layout.
      */
-    public void removeOnBadgeClickedListener(@NonNull OnBadgeClickedListener onBadgeClickedListener) {
-        mOnBadgeClickedListeners.remove(onBadgeClickedListener);
+    public void removeAllBadges() {
+        // Remove all the views, requesting a single layout
+        for (int i = mContentContainer.getChildCount() - 1; i >= 0; i--) {
+            recycleBadgeView((BadgeView) mContentContainer.getChildAt(i));
+        }
+        mContentContainer.removeAllViews();
+
+        for (Badge badge : mBadges) {
+            recycleBadge(badge);
+        }
+        clearBadges();
+        mContentContainer.resetAttachedRange();
     }
 
+    /**
+     * Remove all badges and hand their views back to the badge view pool, forgetting any submitted models.
+     * Meant to be called when the layout itself is recycled, e.g. from
+     * {@code RecyclerView.Adapter#onViewRecycled}, so that the views can be reused by other layouts
+     * sharing the same {@link BadgeViewPool}.
+     */
+    public void recycleAllBadges() {
+        // Drop the result of any pending submission
+        mSubmitGeneration++;
+        mSubmittedModels = Collections.emptyList();
 
-    private void addViewInternal(final View child) {
-        if (child instanceof BadgeItem) {
-            addBadgeFromItemView((BadgeItem) child);
-        } else {
-            throw new IllegalArgumentException("Only BadgeItem instances can be added to BadgeLayout");
+        removeAllBadges();
+
+        if (mMeasureBadgeView != null) {
+            recycleBadgeView(mMeasureBadgeView);
+            mMeasureBadgeView = null;
         }
     }
 
-    private void addBadgeFromItemView(@NonNull BadgeItem badgeItem) {
-        final Badge badge = newBadge();
+    /**
+     * Get the spacing between badge items
+     *
+     * @return Spacing between badge items
+     */
+    public int getSpacing() {
+        return mSpacing;
+    }
 
-        badge.setText(badgeItem.mText);
+    /**
+     * Set the spacing between badge items
+     *
+     * @param spacing Spacing between badge items
+     */
+    public void setSpacing(int spacing) {
+        if (mSpacing == spacing) {
+            return;
+        }
+        mSpacing = spacing;
 
-        badge.setIcon(badgeItem.mIcon);
+        // Spacing is applied by the content container, the badges themselves are not affected
+        mContentContainer.requestLayout();
+    }
 
-        badge.setEnabled(badgeItem.isEnabled());
+    /**
+     * Get the spacing between badge's text and image
+     *
+     * @return The spacing between badge's text and image
+     */
+    public int getBadgeContentSpacing() {
+        return mBadgeContentSpacing;
+    }
 
-        badge.setSelected(badgeItem.isSelected());
+    /**
+     * Set the spacing between text and image
+     *
+     * @param badgeContentSpacing Spacing between text and image
+     */
+    public void setBadgeContentSpacing(int badgeContentSpacing) {
+        if (mBadgeContentSpacing == badgeContentSpacing) {
+            return;
+        }
+        mBadgeContentSpacing = badgeContentSpacing;
 
-        addBadge(badge);
+        updateBadges(DIRTY_LAYOUT);
     }
 
-    private BadgeView createBadgeView(@NonNull final Badge badge) {
-        BadgeView badgeView = mBadgeViewPool.acquire();
-        if (badgeView == null) {
-            badgeView = new BadgeView(getContext());
+    int getBadgeBackgroundResId() {
+        return mBadgeBackgroundResId;
+    }
+
+    /**
+     * Set badge's background
+     *
+     * @param badgeBackgroundResId Badge's background resource id
+     */
+    public void setBadgeBackground(int badgeBackgroundResId) {
+        if (mBadgeBackgroundResId == badgeBackgroundResId) {
+            return;
         }
-        badgeView.setBadge(badge);
-        return badgeView;
+        mBadgeBackgroundResId = badgeBackgroundResId;
+        mBadgeBackgroundState = null;
+
+        updateBadges(DIRTY_BACKGROUND);
     }
 
-    private void addBadgeView(Badge badge) {
-        final BadgeView badgeView = badge.mView;
-        if (badgeView != null) {
-            if (badgeView.getParent() != null) {
-                // Remove from parent if it is already added
-                mContentContainer.removeView(badgeView);
-            }
+    /**
+     * Get the size of the square slot icon sources are decoded to fit in
+     *
+     * @return Badge's icon size, in pixels
+     */
+    public int getBadgeIconSize() {
+        return mBadgeIconSize;
+    }
 
-            LinearLayout.LayoutParams layoutParams = new LinearLayout.LayoutParams(ViewGroup.LayoutParams.WRAP_CONTENT, ViewGroup.LayoutParams.WRAP_CONTENT);
-            if (mContentContainer.getChildCount() > 0) {
-                // Add spacing if required
-                layoutParams.leftMargin = mSpacing;
-            }
-            badgeView.setLayoutParams(layoutParams);
+    /**
+     * Set the size of the square slot icon sources are decoded to fit in. Icons set as drawables keep their
+     * intrinsic size.
+     *
+     * @param badgeIconSize Badge's icon size, in pixels
+     * @see Badge#setIcon(IconSource)
+     */
+    public void setBadgeIconSize(int badgeIconSize) {
+        if (mBadgeIconSize == badgeIconSize) {
+            return;
+        }
+        mBadgeIconSize = badgeIconSize;
+
+        updateBadges(DIRTY_ICON);
+    }
+
+    /**
+     * Whether XML drawable icons are rasterized
+     *
+     * @return True if XML drawable icons are rasterized
+     */
+    public boolean isRasterizeIcons() {
+        return mRasterizeIcons;
+    }
 
-            mContentContainer.addView(badgeView);
+    /**
+     * Set whether XML drawable icon resources, such as vector drawables, are rendered once into a bitmap
+     * shared by all badges displaying them, instead of each badge drawing its own drawable. Defaults to false.
+     * <p>
+     * <p>Rasterized icons are shrunk to fit the icon slot, icons without an intrinsic size fill it, and they
+     * are only rendered for the selected and enabled states of the badge: other states and animations are
+     * lost. They are rendered again when the theme or the configuration changes. Only affects icons set
+     * afterwards, except icons set with {@link Badge#setIconResource(int)}.</p>
+     *
+     * @param rasterizeIcons True to rasterize XML drawable icons
+     * @see #setBadgeIconSize(int)
+     */
+    public void setRasterizeIcons(boolean rasterizeIcons) {
+        if (mRasterizeIcons == rasterizeIcons) {
+            return;
         }
+        mRasterizeIcons = rasterizeIcons;
+
+        updateBadges(DIRTY_ICON);
     }
 
-    private void configureBadge(Badge badge) {
-        mBadges.add(badge);
+    /**
+     * Set the icon displayed while the icon source of a badge is loading
+     *
+     * @param badgeIconPlaceholderResId Placeholder drawable resource id, or 0 for none
+     */
+    public void setBadgeIconPlaceholder(@DrawableRes int badgeIconPlaceholderResId) {
+        if (mBadgeIconPlaceholderResId == badgeIconPlaceholderResId) {
+            return;
+        }
+        mBadgeIconPlaceholderResId = badgeIconPlaceholderResId;
+
+        updateBadges(DIRTY_ICON);
+    }
 
-        if (badge.mView != null) {
-            badge.mView.setOnClickListener(mClickListener);
+    /**
+     * Set the executor icon sources are decoded on. Defaults to {@link AsyncTask#THREAD_POOL_EXECUTOR}.
+     *
+     * @param iconExecutor Executor used to decode icons
+     */
+    public void setIconExecutor(@NonNull Executor iconExecutor) {
+        mIconExecutor = iconExecutor;
+    }
+
+    /**
+     * Get badge's text position
+     *
+     * @return Badge's text position
+     */
+    public BadgeTextPosition getBadgeTextPosition() {
+        return mBadgeTextPosition;
+    }
+
+    /**
+     * Set badge's text position
+     *
+     * @param badgeTextPosition Badge's text position
+     * @see BadgeTextPosition
+     */
+    public void setBadgeTextPosition(BadgeTextPosition badgeTextPosition) {
+        if (mBadgeTextPosition == badgeTextPosition) {
+            return;
         }
+        mBadgeTextPosition = badgeTextPosition;
+
+        updateBadges(DIRTY_LAYOUT);
     }
 
-    private void updateBadges() {
-        for (Badge badge : mBadges) {
-            badge.updateView();
+    /**
+     * Get badge mode
+     *
+     * @return Badge mode
+     * @see BadgeMode
+     */
+    public BadgeMode getBadgeMode() {
+        return mBadgeMode;
+    }
+
+    /**
+     * Set badge mode
+     *
+     * @param badgeMode Badge mode
+     * @see BadgeMode
+     */
+    public void setBadgeMode(BadgeMode badgeMode) {
+        if (mBadgeMode == badgeMode) {
+            return;
+        }
+
+        final boolean wasVirtualizing = isVirtualizing();
+        mBadgeMode = badgeMode;
+
+        // Badges are scrolled, share the width of the layout or wrap onto lines, sizes measured for one mode
+        // don't apply to the others
+        for (int i = 0; i < mBadges.size(); i++) {
+            mBadges.get(i).mMeasuredWidth = -1;
+        }
+        scrollTo(0, 0);
+        mContentContainer.requestLayout();
+        if (wasVirtualizing != isVirtualizing()) {
+            onVirtualizingChanged();
         }
     }
 
-    private void removeBadgeViewAt(int position) {
-        final BadgeView badgeView = (BadgeView) mContentContainer.getChildAt(position);
-        mContentContainer.removeViewAt(position);
-        if (badgeView != null) {
-            mBadgeViewPool.release(badgeView);
+    /**
+     * Get badge render mode
+     *
+     * @return Badge render mode
+     * @see BadgeRenderMode
+     */
+    public BadgeRenderMode getBadgeRenderMode() {
+        return mBadgeRenderMode;
+    }
+
+    /**
+     * Set badge render mode. Changing the render mode recreates the views of all badges.
+     *
+     * @param badgeRenderMode Badge render mode
+     * @see BadgeRenderMode
+     */
+    public void setBadgeRenderMode(BadgeRenderMode badgeRenderMode) {
+        if (mBadgeRenderMode == badgeRenderMode) {
+            return;
+        }
+
+        // Views of the previous render mode can't be reused by this layout. They are recycled into the pool
+        // of their own render mode, releasing their icons.
+        for (int i = mContentContainer.getChildCount() - 1; i >= 0; i--) {
+            recycleBadgeView((BadgeView) mContentContainer.getChildAt(i));
         }
-        requestLayout();
+        mContentContainer.removeAllViews();
+        mContentContainer.dropOverflowView();
+        if (mOwnsBadgeViewPool) {
+            mBadgeViewPool.clear();
+        }
+        mMeasureBadgeView = null;
+
+        mBadgeRenderMode = badgeRenderMode;
+        recreateBadgeViews();
     }
 
+    /**
+     * Whether only the badges inside the visible window have views attached
+     *
+     * @return True if the layout is virtualized
+     */
+    public boolean isVirtualized() {
+        return mVirtualized;
+    }
 
     /**
-     * A badge in this layout. Instances can be created via {@link #newBadge()}.
+     * Set whether only the badges inside the visible window, plus a small prefetch margin, have views
+     * attached. Views of badges scrolled out of the window are recycled for the badges scrolled into it, so
+     * the number of views depends on the width of the layout rather than the number of badges.
+     * <p>
+     * <p>Badges are only measured once they come close to the window. Until then they are given the average
+     * width of the measured badges, so the scroll range is refined as the layout scrolls.</p>
+     *
+     * @param virtualized True to virtualize the layout
      */
-    public static final class Badge {
-        private Object mTag;
-        private Drawable mIcon;
-        private CharSequence mText;
-        private boolean mSelected = false;
-        private boolean mEnabled = true;
+    public void setVirtualized(boolean virtualized) {
+        if (mVirtualized == virtualized) {
+            return;
+        }
 
-        @Nullable
-        private BadgeLayout mParent;
-        @Nullable
-        private BadgeView mView;
+        final boolean wasVirtualizing = isVirtualizing();
+        mVirtualized = virtualized;
+        if (wasVirtualizing != isVirtualizing()) {
+            onVirtualizingChanged();
+        }
+    }
 
-        private Badge() {
-            // Private constructor
+    /**
+     * Whether badges which don't fit in the width of the layout are hidden behind an overflow badge
+     *
+     * @return True if the overflow is collapsed
+     */
+    public boolean isCollapseOverflow() {
+        return mCollapseOverflow;
+    }
+
+    /**
+     * Set whether badges which don't fit in the width of the layout are hidden behind a single overflow
+     * badge, displaying how many badges are hidden, e.g. "+12". Badges are measured in order until one
+     * doesn't fit, hidden badges are neither measured nor attached. Only applies to scrollable badges.
+     *
+     * @param collapseOverflow True to collapse the overflow
+     */
+    public void setCollapseOverflow(boolean collapseOverflow) {
+        if (mCollapseOverflow == collapseOverflow) {
+            return;
         }
 
-        /**
-         * Give this Badge an arbitrary object to hold for later use.
-         *
-         * @param tag Object to store
-         * @return The current instance for call chaining
-         */
-        public Badge setTag(@Nullable Object tag) {
-            mTag = tag;
-            return this;
+        final boolean wasVirtualizing = isVirtualizing();
+        mCollapseOverflow = collapseOverflow;
+        scrollTo(0, 0);
+        mContentContainer.requestLayout();
+        if (wasVirtualizing != isVirtualizing()) {
+            onVirtualizingChanged();
         }
+    }
 
-        /**
-         * Set the text displayed on this badge. Text may be truncated if there is not room to display
-         * the entire string.
-         *
-         * @param text The text to display
-         * @return The current instance for call chaining
-         */
-        @NonNull
-        public Badge setText(@Nullable CharSequence text) {
-            mText = text;
-            updateView();
-            return this;
+    /**
+     * Whether all badges are assumed to have the size of the first one
+     *
+     * @return True if badges have a uniform size
+     */
+    public boolean isUniformBadgeSize() {
+        return mUniformBadgeSize;
+    }
+
+    /**
+     * Set whether all badges are assumed to have the same size, e.g. icon only badges. Only the first
+     * badge is then measured, its size is given to all the others and their positions are computed
+     * arithmetically, so measuring a strip costs the same whatever its number of badges. Only applies to
+     * scrollable badges whose overflow isn't collapsed.
+     *
+     * @param uniformBadgeSize True if badges have a uniform size
+     */
+    public void setUniformBadgeSize(boolean uniformBadgeSize) {
+        if (mUniformBadgeSize != uniformBadgeSize) {
+            mUniformBadgeSize = uniformBadgeSize;
+            mContentContainer.requestLayout();
+        }
+    }
+
+    /**
+     * Whether badges are drawn from a hardware layer while the layout scrolls or animates
+     *
+     * @return True if the scrolling layer is enabled
+     */
+    public boolean isScrollingLayerEnabled() {
+        return mScrollingLayerEnabled;
+    }
+
+    /**
+     * Set whether badges are drawn from a hardware layer while the layout scrolls or runs an animation, so
+     * that badge views aren't drawn again each frame. The layer is dropped once the layout has been idle
+     * for a moment, or as soon as a badge changes. Only used when the layout is hardware accelerated, and
+     * the badges fit in the maximum texture size of the renderer. Enabled by default.
+     * <p>
+     * <p>Only view animations started with {@link #startAnimation(android.view.animation.Animation)} use the
+     * layer. Property animations of the layout aren't seen by it, use
+     * {@link android.view.ViewPropertyAnimator#withLayer()} for those.</p>
+     *
+     * @param scrollingLayerEnabled True to enable the scrolling layer
+     */
+    public void setScrollingLayerEnabled(boolean scrollingLayerEnabled) {
+        mScrollingLayerEnabled = scrollingLayerEnabled;
+        if (!scrollingLayerEnabled) {
+            dropLayer();
         }
+    }
+
+    /**
+     * Get statistics about the scrolling layer: its size is 1 while the layer is in use, hits are frames
+     * drawn from the layer and misses are frames which drew the badge views.
+     *
+     * @return Current layer statistics
+     * @see #setScrollingLayerEnabled(boolean)
+     */
+    @NonNull
+    public CacheStats getScrollingLayerStats() {
+        return new CacheStats(mLayerActive ? 1 : 0, mLayerFrameCount, mRenderedFrameCount);
+    }
+
+    /**
+     * Get the number of badges hidden behind the overflow badge, as of the last layout pass
+     *
+     * @return Number of hidden badges
+     * @see #setCollapseOverflow(boolean)
+     */
+    public int getOverflowCount() {
+        return mContentContainer.getOverflowCount();
+    }
+
+    /**
+     * Scroll by the least amount so that a badge is fully visible, or starts at the start of the layout
+     * if it is wider than the layout. If the badges haven't been measured yet, the layout is scrolled
+     * right after the next layout pass.
+     *
+     * @param index Position of the badge
+     */
+    public void scrollToBadge(int index) {
+        scrollToBadge(index, false);
+    }
+
+    /**
+     * Like {@link #scrollToBadge(int)}, with an animation
+     *
+     * @param index Position of the badge
+     */
+    public void smoothScrollToBadge(int index) {
+        scrollToBadge(index, true);
+    }
+
+    /**
+     * Get the position of the first badge with at least one pixel visible, in O(log n) without allocating
+     *
+     * @return Position of the badge, or -1 if no badge is visible
+     */
+    public int getFirstVisibleBadgeIndex() {
+        computeVisibleRange();
+        return mFirstVisible;
+    }
+
+    /**
+     * Get the position of the last badge with at least one pixel visible, in O(log n) without allocating
+     *
+     * @return Position of the badge, or -1 if no badge is visible
+     */
+    public int getLastVisibleBadgeIndex() {
+        computeVisibleRange();
+        return mLastVisible;
+    }
+
+    /**
+     * Whether flings and drags end with a badge aligned to the start of the layout
+     *
+     * @return True if scrolling snaps to badges
+     */
+    public boolean isSnapToBadges() {
+        return mSnapToBadges;
+    }
+
+    /**
+     * Set whether flings and drags end with a badge aligned to the start of the layout. A fling always
+     * moves by at least one badge in its direction. Only applies to scrollable badges.
+     *
+     * @param snapToBadges True to snap to badges
+     */
+    public void setSnapToBadges(boolean snapToBadges) {
+        mSnapToBadges = snapToBadges;
+    }
+
+    /**
+     * Get statistics about the pooling of badges and badge views
+     *
+     * @return Current pool statistics
+     */
+    @NonNull
+    public PoolStats getPoolStats() {
+        return new PoolStats(sBadgePool.size(), sBadgePool.getHitCount(), sBadgePool.getMissCount(),
+                mBadgeViewPool.getSize(), mBadgeViewPool.getHitCount(), mBadgeViewPool.getMissCount());
+    }
+
+    /**
+     * Get statistics about the process wide cache of text layouts, used by the flattened render mode
+     *
+     * @return Current cache statistics
+     */
+    @NonNull
+    public static CacheStats getTextLayoutCacheStats() {
+        return new CacheStats(TextLayoutCache.size(), TextLayoutCache.getHitCount(), TextLayoutCache.getMissCount());
+    }
+
+    /**
+     * Get statistics about the process wide cache of decoded icon sources. Its size is in bytes.
+     *
+     * @return Current cache statistics
+     */
+    @NonNull
+    public static CacheStats getIconCacheStats() {
+        return new CacheStats(IconLoader.size(), IconLoader.getHitCount(), IconLoader.getMissCount());
+    }
+
+    /**
+     * Get the number of badge views kept ready in the pool
+     *
+     * @return Prewarm count
+     */
+    public int getPrewarmCount() {
+        return mPrewarmCount;
+    }
+
+    /**
+     * Fill the badge view pool with views for up to the given number of badges, so they don't have to be
+     * created when badges are added. Views are created while the main thread is idle, a few at a time, and
+     * only while the layout is attached to a window. The pool is filled again whenever the layout is
+     * re-attached, its capacity bounds the number of prewarmed views.
+     *
+     * @param count Number of views to keep ready, 0 to disable prewarming
+     */
+    @MainThread
+    public void prewarm(int count) {
+        mPrewarmCount = Math.max(count, 0);
+        if (ViewCompat.isAttachedToWindow(this)) {
+            schedulePrewarm();
+        }
+    }
+
+    /**
+     * Get the memory used by the icon atlas of the layout, which packs the icons of flattened badges set
+     * from icon sources into a single bitmap
+     *
+     * @return Size of the icon atlas, in bytes
+     * @see BadgeRenderMode#FLATTENED
+     */
+    public int getIconAtlasByteCount() {
+        return mIconAtlas.getByteCount();
+    }
+
+    /**
+     * Get the pool the views of removed badges are recycled into
+     *
+     * @return Badge view pool
+     */
+    @NonNull
+    public BadgeViewPool getBadgeViewPool() {
+        return mBadgeViewPool;
+    }
+
+    /**
+     * Set the pool the views of removed badges are recycled into, and new views are taken from. Sharing a
+     * pool between several layouts, e.g. the rows of a list, lets a layout reuse the views released by the
+     * others. Shared pools are not trimmed when the layout is detached, only when memory runs low.
+     *
+     * @param badgeViewPool Badge view pool, or null to use a pool of this layout only
+     */
+    public void setBadgeViewPool(@Nullable BadgeViewPool badgeViewPool) {
+        if (mBadgeViewPool == badgeViewPool) {
+            return;
+        }
+
+        if (mOwnsBadgeViewPool) {
+            mBadgeViewPool.clear();
+        }
+
+        mOwnsBadgeViewPool = badgeViewPool == null;
+        mBadgeViewPool = badgeViewPool != null ? badgeViewPool : new BadgeViewPool();
+    }
+
+    public ColorStateList getBadgeTextColor() {
+        return mBadgeTextColors;
+    }
+
+    /**
+     * Set badge text color
+     *
+     * @param badgeTextColor Badge's text color
+     */
+    public void setBadgeTextColor(ColorStateList badgeTextColor) {
+        mBadgeTextColors = badgeTextColor;
+
+        updateBadges(DIRTY_TEXT_STYLE);
+    }
+
+    /**
+     * Get badge text size
+     *
+     * @return Badge's text size
+     */
+    public int getBadgeTextSize() {
+        return mBadgeTextSize;
+    }
+
+    /**
+     * Set badge text size
+     *
+     * @param textSize Badge's text size
+     */
+    public void setBadgeTextSize(int textSize) {
+        if (mBadgeTextSize == textSize) {
+            return;
+        }
+        mBadgeTextSize = textSize;
+
+        updateBadges(DIRTY_TEXT_STYLE);
+    }
+
+    /**
+     * Add a {@link BadgeLayout.OnBadgeClickedListener} that will be invoked when badge is clicked.
+     * <p>
+     * <p>Components that add a listener should take care to remove it when finished via
+     * {@link #removeOnBadgeClickedListener(OnBadgeClickedListener)}.</p>
+     *
+     * @param onBadgeClickedListener listener to add
+     */
+    public void addOnBadgeClickedListener(@NonNull OnBadgeClickedListener onBadgeClickedListener) {
+        if (!mOnBadgeClickedListeners.contains(onBadgeClickedListener)) {
+            mOnBadgeClickedListeners.add(onBadgeClickedListener);
+            mOnBadgeClickedListenersSnapshot = null;
+        }
+    }
+
+    /**
+     * Remove the given {@link BadgeLayout.OnBadgeClickedListener} that was previously added via
+     * {@link #addOnBadgeClickedListener(OnBadgeClickedListener)}.
+     *
+     * @param onBadgeClickedListener listener to remove
+     */
+    public void removeOnBadgeClickedListener(@NonNull OnBadgeClickedListener onBadgeClickedListener) {
+        if (mOnBadgeClickedListeners.remove(onBadgeClickedListener)) {
+            mOnBadgeClickedListenersSnapshot = null;
+        }
+    }
+
+    /**
+     * Add a {@link BadgeLayout.OnBadgeLongClickedListener} that will be invoked when badge is long clicked.
+     * <p>
+     * <p>Components that add a listener should take care to remove it when finished via
+     * {@link #removeOnBadgeLongClickedListener(OnBadgeLongClickedListener)}.</p>
+     *
+     * @param onBadgeLongClickedListener Listener to add
+     */
+    public void addOnBadgeLongClickedListener(@NonNull OnBadgeLongClickedListener onBadgeLongClickedListener) {
+        if (!mOnBadgeLongClickedListeners.contains(onBadgeLongClickedListener)) {
+            mOnBadgeLongClickedListeners.add(onBadgeLongClickedListener);
+            mOnBadgeLongClickedListenersSnapshot = null;
+        }
+    }
+
+    /**
+     * Remove the given {@link BadgeLayout.OnBadgeLongClickedListener} that was previously added via
+     * {@link #addOnBadgeLongClickedListener(OnBadgeLongClickedListener)}.
+     *
+     * @param onBadgeLongClickedListener Listener to remove
+     */
+    public void removeOnBadgeLongClickedListener(@NonNull OnBadgeLongClickedListener onBadgeLongClickedListener) {
+        if (mOnBadgeLongClickedListeners.remove(onBadgeLongClickedListener)) {
+            mOnBadgeLongClickedListenersSnapshot = null;
+        }
+    }
+
+    /**
+     * Whether touches are hit tested by the layout rather than handled by each badge view
+     *
+     * @return True if the layout dispatches clicks
+     */
+    public boolean isHitTestClicks() {
+        return mHitTestClicks;
+    }
+
+    /**
+     * Set whether the layout hit tests touches against the positions of its badges, found by binary search,
+     * and dispatches clicks, long clicks and pressed states itself. Badge views then have no listeners
+     * and aren't clickable, which is lighter, especially for flattened badges.
+     *
+     * @param hitTestClicks True to let the layout dispatch clicks
+     */
+    public void setHitTestClicks(boolean hitTestClicks) {
+        if (mHitTestClicks == hitTestClicks) {
+            return;
+        }
+
+        mHitTestClicks = hitTestClicks;
+        mContentContainer.cancelPress();
+        for (int i = 0; i < mContentContainer.getChildCount(); i++) {
+            final View child = mContentContainer.getChildAt(i);
+            if (!mContentContainer.isOverflowView((BadgeView) child)) {
+                bindClickHandling(child);
+            }
+        }
+    }
+
+    /**
+     * Add a {@link BadgeLayout.OnVisibleBadgesChangedListener} that will be invoked when the range of
+     * visible badges changes.
+     * <p>
+     * <p>Components that add a listener should take care to remove it when finished via
+     * {@link #removeOnVisibleBadgesChangedListener(OnVisibleBadgesChangedListener)}.</p>
+     *
+     * @param onVisibleBadgesChangedListener Listener to add
+     */
+    public void addOnVisibleBadgesChangedListener(
+            @NonNull OnVisibleBadgesChangedListener onVisibleBadgesChangedListener) {
+        if (!mOnVisibleBadgesChangedListeners.contains(onVisibleBadgesChangedListener)) {
+            mOnVisibleBadgesChangedListeners.add(onVisibleBadgesChangedListener);
+        }
+    }
+
+    /**
+     * Remove the given {@link BadgeLayout.OnVisibleBadgesChangedListener} that was previously added via
+     * {@link #addOnVisibleBadgesChangedListener(OnVisibleBadgesChangedListener)}.
+     *
+     * @param onVisibleBadgesChangedListener Listener to remove
+     */
+    public void removeOnVisibleBadgesChangedListener(
+            @NonNull OnVisibleBadgesChangedListener onVisibleBadgesChangedListener) {
+        mOnVisibleBadgesChangedListeners.remove(onVisibleBadgesChangedListener);
+    }
+
+
+    private void addViewInternal(final View child) {
+        if (child instanceof BadgeItem) {
+            addBadgeFromItemView((BadgeItem) child);
+        } else {
+            throw new IllegalArgumentException("Only BadgeItem instances can be added to BadgeLayout");
+        }
+    }
+
+    private void addBadgeFromItemView(@NonNull BadgeItem badgeItem) {
+        final Badge badge = newBadge();
+
+        badge.setText(badgeItem.mText);
+
+        if (badgeItem.mIconResId != 0) {
+            setIconResource(badge, badgeItem.mIconResId, badgeItem.mIcon);
+        } else {
+            badge.setIcon(badgeItem.mIcon);
+        }
+
+        badge.setEnabled(badgeItem.isEnabled());
+
+        badge.setSelected(badgeItem.isSelected());
+
+        addBadge(badge);
+    }
+
+    /**
+     * Get the bitmap of the icon source of a badge if it is available right away. Drawable resources are
+     * rasterized for the state of the badge if icons are rasterized, and have no bitmap otherwise. Other
+     * sources have to be decoded unless they are cached.
+     */
+    @Nullable
+    private Bitmap getIconBitmap(@NonNull Badge badge, @NonNull IconSource iconSource) {
+        if (iconSource.isRasterized(getContext())) {
+            return mRasterizeIcons
+                    ? IconLoader.rasterize(getContext(), iconSource, mBadgeIconSize, badge.mSelected, badge.mEnabled)
+                    : null;
+        }
+        return IconLoader.getCached(iconSource, mBadgeIconSize);
+    }
+
+    /**
+     * Set the icon of a badge from a drawable resource. XML drawables share one rasterized bitmap across
+     * badges if icons are rasterized, otherwise resources are used as drawables as they always have been.
+     */
+    private void setIconResource(@NonNull Badge badge, @DrawableRes int iconResId, @Nullable Drawable icon) {
+        final IconSource iconSource = IconSource.fromResource(iconResId);
+        if (mRasterizeIcons && iconSource.isRasterized(getContext())) {
+            badge.setIcon(iconSource);
+        } else {
+            badge.setIcon(icon != null ? icon : ContextCompat.getDrawable(getContext(), iconResId));
+        }
+    }
+
+    private boolean hasRasterizedIcon(@NonNull Badge badge) {
+        final IconSource iconSource = badge.mIconSource;
+        return mRasterizeIcons && iconSource != null && iconSource.isRasterized(getContext());
+    }
+
+    /**
+     * Create a background for a badge. The background resource is inflated once, then every badge gets a
+     * drawable sharing its constant state. Stateful backgrounds are mutated, as each badge has its own state.
+     */
+    @Nullable
+    private Drawable newBadgeBackground() {
+        if (mBadgeBackgroundResId == 0) {
+            return null;
+        }
+
+        if (mBadgeBackgroundState == null) {
+            final Drawable background = ContextCompat.getDrawable(getContext(), mBadgeBackgroundResId);
+            mBadgeBackgroundState = background != null ? background.getConstantState() : null;
+            if (mBadgeBackgroundState == null) {
+                // Not shareable, every badge inflates its own
+                return background;
+            }
+        }
+
+        final Drawable background = mBadgeBackgroundState.newDrawable(getResources());
+        return background.isStateful() ? background.mutate() : background;
+    }
+
+    /**
+     * Create the drawable displayed while an icon source is loading
+     */
+    @Nullable
+    private Drawable newIconPlaceholder() {
+        return mBadgeIconPlaceholderResId != 0
+                ? ContextCompat.getDrawable(getContext(), mBadgeIconPlaceholderResId) : null;
+    }
+
+    private TextPaint newBadgeTextPaint() {
+        final TextPaint textPaint = new TextPaint(Paint.ANTI_ALIAS_FLAG);
+        textPaint.setTextSize(TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_SP, mBadgeTextSize,
+                getResources().getDisplayMetrics()));
+        return textPaint;
+    }
+
+    /**
+     * Get a view for the badge, bound immediately
+     */
+    private BadgeView createBadgeView(@NonNull final Badge badge) {
+        final BadgeView badgeView = obtainBadgeView(badge);
+        badgeView.update(DIRTY_ALL);
+        badge.mPendingDirtyFlags = 0;
+        return badgeView;
+    }
+
+    /**
+     * Get a view for the badge, without binding it
+     */
+    private BadgeView obtainBadgeView(@NonNull final Badge badge) {
+        BadgeView badgeView = (BadgeView) mBadgeViewPool.acquire(mBadgeRenderMode, getContext());
+        if (badgeView == null) {
+            badgeView = newBadgeView();
+        }
+        badgeView.setBadge(badge);
+        return badgeView;
+    }
+
+    private void recycleBadge(Badge badge) {
+        badge.reset();
+        sBadgePool.release(badge);
+    }
+
+    private void recycleBadgeView(BadgeView badgeView) {
+        if (mContentContainer.isOverflowView(badgeView)) {
+            // Owned by the container, attached again on the next layout if still needed
+            return;
+        }
+
+        // Pooled views must not keep their badge alive
+        badgeView.setBadge(null);
+        mBadgeViewPool.release(mBadgeRenderMode, (View) badgeView);
+    }
+
+    private void schedulePrewarm() {
+        if (!mPrewarmScheduled && mPrewarmCount > 0) {
+            mPrewarmScheduled = true;
+            Looper.myQueue().addIdleHandler(mPrewarmIdleHandler);
+        }
+    }
+
+    /**
+     * Drop pooled badges and views, and the caches shared by all layouts
+     */
+    private static void trimPools() {
+        BadgeViewPool.clearAll();
+        sBadgePool.clear();
+        TextLayoutCache.clear();
+        IconLoader.clear();
+    }
+
+    private void applyBadgeDiff(List<BadgeModel> oldModels, List<BadgeModel> newModels, BadgeDiff diff) {
+        mSubmittedModels = newModels;
+
+        // Checked first, as badges changed by other means must be recreated even if the models are the same
+        boolean consistent = mBadges.size() == oldModels.size();
+        for (int i = 0; consistent && i < mBadges.size(); i++) {
+            consistent = mBadges.get(i).mId == oldModels.get(i).getId();
+        }
+        if (consistent && diff.isEmpty()) {
+            return;
+        }
+
+        beginBatchUpdate();
+        try {
+            if (!consistent) {
+                // Badges have been changed by other means, start over
+                final ArrayList<Badge> badges = new ArrayList<>(newModels.size());
+                for (BadgeModel model : newModels) {
+                    badges.add(applyBadgeModel(newBadge(), null, model));
+                }
+                setBadges(badges);
+                return;
+            }
+
+            // Content changes only update the affected parts of the badge views
+            final Badge[] badges = new Badge[newModels.size()];
+            for (int i = 0; i < badges.length; i++) {
+                final int oldPosition = diff.getOldPosition(i);
+                if (oldPosition >= 0) {
+                    badges[i] = mBadges.get(oldPosition);
+                    if (diff.isChanged(i)) {
+                        applyBadgeModel(badges[i], oldModels.get(oldPosition), newModels.get(i));
+                    }
+                }
+            }
+
+            if (!diff.isStructural()) {
+                return;
+            }
+
+            if (isVirtualizing()) {
+                // Attached views are rebound to the new positions in the next layout pass
+                mContentContainer.recycleAttachedViews();
+            }
+
+            for (int oldPosition : diff.getRemovedPositions()) {
+                final Badge badge = mBadges.get(oldPosition);
+                if (badge.mView != null) {
+                    mContentContainer.removeView((View) badge.mView);
+                    recycleBadgeView(badge.mView);
+                }
+                unindexBadge(badge);
+                recycleBadge(badge);
+            }
+
+            if (!isVirtualizing()) {
+                // Moved views are attached again at their new positions below
+                for (int i = 0; i < badges.length; i++) {
+                    if (diff.isMoved(i)) {
+                        mContentContainer.detachBadgeView((View) badges[i].mView);
+                    }
+                }
+            }
+
+            for (int i = 0; i < badges.length; i++) {
+                if (badges[i] == null) {
+                    badges[i] = applyBadgeModel(newBadge(), null, newModels.get(i));
+                    indexBadge(badges[i]);
+                }
+            }
+
+            mBadges.clear();
+            mBadges.addAll(Arrays.asList(badges));
+            mPositionCache.invalidate();
+            mBadgeOffsetIndex.clear();
+            mBadgeFlowIndex.clear();
+            mVisibleBadgesStale = true;
+            for (int i = 0; i < badges.length; i++) {
+                mBadgeOffsetIndex.insert(i, Math.max(0, badges[i].mMeasuredWidth));
+                mBadgeFlowIndex.insert(i);
+            }
+
+            if (!isVirtualizing()) {
+                // Views of kept badges are in order, so each moved or inserted view goes at its new position
+                for (int i = 0; i < badges.length; i++) {
+                    final View view = (View) badges[i].mView;
+                    if (diff.getOldPosition(i) < 0) {
+                        bindClickHandling(view);
+                        mContentContainer.addView(view, i);
+                    } else if (diff.isMoved(i)) {
+                        mContentContainer.attachBadgeView(view, i);
+                    }
+                }
+            }
+
+            mContentContainer.requestLayout();
+        } finally {
+            endBatchUpdate();
+        }
+    }
+
+    /**
+     * Apply a model to a badge, only calling the setters of the properties which differ from the old model
+     *
+     * @param oldModel Model previously applied to the badge, or null if the badge is new
+     */
+    private Badge applyBadgeModel(Badge badge, @Nullable BadgeModel oldModel, BadgeModel model) {
+        if (oldModel == null
+                || oldModel.getIcon() != model.getIcon()
+                || oldModel.getIconResId() != model.getIconResId()
+                || !objectsEqual(oldModel.getIconSource(), model.getIconSource())) {
+            if (model.getIcon() != null) {
+                badge.setIcon(model.getIcon());
+            } else if (model.getIconResId() != 0) {
+                setIconResource(badge, model.getIconResId(), null);
+            } else {
+                badge.setIcon(model.getIconSource());
+            }
+        }
+
+        if (oldModel == null) {
+            badge.setId(model.getId());
+        }
+        if (oldModel == null || !TextUtils.equals(oldModel.getText(), model.getText())) {
+            badge.setText(model.getText());
+        }
+        if (oldModel == null || oldModel.isSelected() != model.isSelected()) {
+            badge.setSelected(model.isSelected());
+        }
+        if (oldModel == null || oldModel.isEnabled() != model.isEnabled()) {
+            badge.setEnabled(model.isEnabled());
+        }
+        if (oldModel == null || !objectsEqual(oldModel.getTag(), model.getTag())) {
+            badge.setTag(model.getTag());
+        }
+        return badge;
+    }
+
+    private static boolean objectsEqual(@Nullable Object a, @Nullable Object b) {
+        return a == null ? b == null : a.equals(b);
+    }
+
+    private BadgeView newBadgeView() {
+        if (mBadgeRenderMode == BadgeRenderMode.FLATTENED) {
+            return new FlatBadgeView(getContext());
+        } else {
+            return new DefaultBadgeView(getContext());
+        }
+    }
+
+    private void addBadgeView(Badge badge, int index) {
+        final View badgeView = (View) badge.mView;
+        if (badgeView != null) {
+            if (badgeView.getParent() != null) {
+                // Remove from parent if it is already added
+                mContentContainer.removeView(badgeView);
+            }
+
+            mContentContainer.addView(badgeView, index);
+        }
+    }
+
+    private void configureBadge(Badge badge, int index) {
+        mBadges.add(index, badge);
+        mBadgeOffsetIndex.insert(index, 0);
+        mBadgeFlowIndex.insert(index);
+        mVisibleBadgesStale = true;
+        mContentContainer.onBadgeInserted(index);
+        mPositionCache.onInserted(mBadges, index);
+        indexBadge(badge);
+        if (badge.mView == null) {
+            // Badge is measured in the next layout pass
+            mContentContainer.requestLayout();
+        }
+
+        if (badge.mView != null) {
+            bindClickHandling((View) badge.mView);
+        }
+    }
+
+    private void indexBadge(Badge badge) {
+        badge.mAdded = true;
+        badge.mIndexedId = badge.mId;
+        badge.mIndexedTag = badge.mTag;
+        if (badge.mIndexedId != NO_ID) {
+            mBadgesById.put(badge.mIndexedId, badge);
+        }
+        if (badge.mIndexedTag != null) {
+            mBadgesByTag.put(badge.mIndexedTag, badge);
+        }
+    }
+
+    private void unindexBadge(Badge badge) {
+        badge.mAdded = false;
+        if (badge.mIndexedId != NO_ID && mBadgesById.get(badge.mIndexedId) == badge) {
+            mBadgesById.remove(badge.mIndexedId);
+        }
+        if (badge.mIndexedTag != null && mBadgesByTag.get(badge.mIndexedTag) == badge) {
+            mBadgesByTag.remove(badge.mIndexedTag);
+        }
+    }
+
+    private void reindexBadge(Badge badge) {
+        if (badge.mAdded) {
+            unindexBadge(badge);
+            indexBadge(badge);
+        }
+    }
+
+    /**
+     * Queue a badge changed off the main thread. May be called from any thread.
+     */
+    private void postBackgroundUpdate(Badge badge) {
+        mBackgroundDirtyBadges.offer(badge);
+        if (mBackgroundUpdatePosted.compareAndSet(false, true)) {
+            mMainHandler.post(mBackgroundUpdateRunnable);
+        }
+    }
+
+    /**
+     * Apply the changes made off the main thread since the last call, in a single batch update
+     */
+    private void publishBackgroundUpdates() {
+        beginBatchUpdate();
+        try {
+            Badge badge;
+            while ((badge = mBackgroundDirtyBadges.poll()) != null) {
+                // The flags of a badge recycled into another layout belong to that layout
+                if (badge.mParent != this) {
+                    continue;
+                }
+
+                // Reading the flags makes the field values written before them visible
+                final int dirtyFlags = badge.mBackgroundDirtyFlags.getAndSet(0);
+
+                if ((dirtyFlags & DIRTY_INDEX) != 0) {
+                    reindexBadge(badge);
+                }
+                if ((dirtyFlags & ~DIRTY_INDEX) != 0) {
+                    badge.updateView(dirtyFlags & ~DIRTY_INDEX);
+                }
+            }
+        } finally {
+            endBatchUpdate();
+        }
+    }
+
+    private void clearBadges() {
+        for (Badge badge : mBadges) {
+            badge.mAdded = false;
+        }
+        mBadges.clear();
+        mBadgesById.clear();
+        mBadgesByTag.clear();
+        mPositionCache.invalidate();
+        mBadgeOffsetIndex.clear();
+        mBadgeFlowIndex.clear();
+        mVisibleBadgesStale = true;
+    }
+
+    /**
+     * Mark all badges as dirty. Views are updated on the next frame, or before the next measure.
+     */
+    private void updateBadges(int dirtyFlags) {
+        mPendingDirtyFlags |= dirtyFlags;
+        if ((dirtyFlags & DIRTY_SIZE) != 0) {
+            mContentContainer.requestLayout();
+        }
+        scheduleUpdate();
+    }
+
+    private void scheduleUpdate() {
+        // The layer would be rendered again anyway
+        dropLayer();
+
+        if (!mUpdateScheduled && mBatchUpdateDepth == 0) {
+            mUpdateScheduled = true;
+            ViewCompat.postOnAnimation(this, mUpdateRunnable);
+        }
+    }
+
+    private void bindClickHandling(View view) {
+        if (mHitTestClicks) {
+            view.setOnClickListener(null);
+            view.setOnLongClickListener(null);
+            // Setting listeners makes the view clickable, even null ones
+            view.setClickable(false);
+            view.setLongClickable(false);
+            view.setAccessibilityDelegate(mHitTestAccessibilityDelegate);
+        } else {
+            view.setOnClickListener(mClickListener);
+            view.setOnLongClickListener(mLongClickListener);
+            view.setAccessibilityDelegate(null);
+        }
+    }
+
+    private void dispatchBadgeClicked(Badge badge) {
+        if (mOnBadgeClickedListenersSnapshot == null) {
+            mOnBadgeClickedListenersSnapshot = mOnBadgeClickedListeners.toArray(
+                    new OnBadgeClickedListener[mOnBadgeClickedListeners.size()]);
+        }
+
+        final OnBadgeClickedListener[] listeners = mOnBadgeClickedListenersSnapshot;
+        for (int i = listeners.length - 1; i >= 0; i--) {
+            listeners[i].onBadgeClicked(badge);
+        }
+    }
+
+    private boolean dispatchBadgeLongClicked(Badge badge) {
+        if (mOnBadgeLongClickedListenersSnapshot == null) {
+            mOnBadgeLongClickedListenersSnapshot = mOnBadgeLongClickedListeners.toArray(
+                    new OnBadgeLongClickedListener[mOnBadgeLongClickedListeners.size()]);
+        }
+
+        // Every listener is invoked, the long click is consumed if any of them consumes it
+        boolean consumed = false;
+        final OnBadgeLongClickedListener[] listeners = mOnBadgeLongClickedListenersSnapshot;
+        for (int i = listeners.length - 1; i >= 0; i--) {
+            consumed |= listeners[i].onBadgeLongClicked(badge);
+        }
+        return consumed;
+    }
+
+    /**
+     * Draw the content from a hardware layer until the layout is idle
+     */
+    private void promoteLayer() {
+        if (!mScrollingLayerEnabled || !isHardwareAccelerated()) {
+            return;
+        }
+
+        // The layer spans all badges, a layer larger than a texture would fail to render
+        if (mContentContainer.getWidth() > mMaxLayerWidth || mContentContainer.getHeight() > mMaxLayerHeight) {
+            dropLayer();
+            return;
+        }
+
+        if (!mLayerActive) {
+            mLayerActive = true;
+            mContentContainer.setLayerType(LAYER_TYPE_HARDWARE, null);
+        }
+        removeCallbacks(mDropLayerRunnable);
+        if (!mAnimating) {
+            postDelayed(mDropLayerRunnable, LAYER_IDLE_DELAY_MILLIS);
+        }
+    }
+
+    private void dropLayer() {
+        removeCallbacks(mDropLayerRunnable);
+        if (mLayerActive) {
+            mLayerActive = false;
+            mContentContainer.setLayerType(LAYER_TYPE_NONE, null);
+        }
+    }
+
+    /**
+     * Apply pending changes to the badge views, at most once per badge
+     */
+    private void flushPendingUpdates() {
+        if (mBatchUpdateDepth > 0) {
+            return;
+        }
+
+        final int dirtyFlags = mPendingDirtyFlags;
+        mPendingDirtyFlags = 0;
+        if (dirtyFlags != 0) {
+            for (int i = 0; i < mBadges.size(); i++) {
+                final Badge badge = mBadges.get(i);
+                if ((dirtyFlags & DIRTY_SIZE) != 0) {
+                    badge.mMeasuredWidth = -1;
+                }
+                badge.mPendingDirtyFlags |= dirtyFlags;
+                badge.applyPendingUpdates();
+            }
+        }
+
+        for (int i = 0; i < mDirtyBadges.size(); i++) {
+            mDirtyBadges.get(i).applyPendingUpdates();
+        }
+        mDirtyBadges.clear();
+    }
+
+    /**
+     * Whether only some badges have views attached: the visible ones, or the ones before the overflow
+     * badge. Fixed and flow modes lay out every badge.
+     */
+    private boolean isVirtualizing() {
+        return (mVirtualized || mCollapseOverflow) && mBadgeMode == BadgeMode.SCROLLABLE;
+    }
+
+    /**
+     * Whether badges may be scrolled out of view
+     */
+    private boolean isScrollingBadges() {
+        return mBadgeMode == BadgeMode.SCROLLABLE && !mCollapseOverflow;
+    }
+
+    private boolean canSnap() {
+        return mSnapToBadges && mBadgeMode == BadgeMode.SCROLLABLE && !mCollapseOverflow && !mBadges.isEmpty();
+    }
+
+    private int getMaxScrollX() {
+        return Math.max(0, mContentContainer.getWidth() - (getWidth() - getPaddingLeft() - getPaddingRight()));
+    }
+
+    private void scrollToBadge(int index, boolean smooth) {
+        if (index < 0 || index >= mBadges.size()) {
+            throw new IndexOutOfBoundsException("Invalid index " + index + ", size is " + mBadges.size());
+        }
+        if (!isScrollingBadges()) {
+            // Every displayed badge is visible already
+            return;
+        }
+        if (isLayoutRequested() || mContentContainer.isLayoutRequested()) {
+            mPendingScrollBadgeIndex = index;
+            mPendingSmoothScroll = smooth;
+            return;
+        }
+
+        // Badge and viewport in the coordinates of the container
+        final int start = mBadgeOffsetIndex.getStart(index);
+        final int end = mBadgeOffsetIndex.getEnd(index);
+        final int viewportWidth = getWidth() - getPaddingLeft() - getPaddingRight();
+        final int viewportStart = getScrollX() + getPaddingLeft() - mContentContainer.getLeft();
+
+        int scrollX = getScrollX();
+        if (start < viewportStart || end - start > viewportWidth) {
+            scrollX += start - viewportStart;
+        } else if (end > viewportStart + viewportWidth) {
+            scrollX += end - (viewportStart + viewportWidth);
+        }
+
+        if (smooth) {
+            smoothScrollTo(scrollX, 0);
+        } else {
+            scrollTo(scrollX, 0);
+        }
+    }
+
+    /**
+     * Get the scroll position aligning the badge nearest to a scroll position with the start of the layout
+     *
+     * @param scrollX   The scroll position
+     * @param velocityX Velocity of the fling, whose direction the snap must follow, or 0
+     */
+    private int getSnapScrollX(int scrollX, int velocityX) {
+        final int offset = scrollX + getPaddingLeft() - mContentContainer.getLeft();
+        final int scrollOffset = getScrollX() + getPaddingLeft() - mContentContainer.getLeft();
+        int index = mBadgeOffsetIndex.indexAt(offset);
+        if (index + 1 < mBadges.size()
+                && mBadgeOffsetIndex.getStart(index + 1) - offset < offset - mBadgeOffsetIndex.getStart(index)) {
+            index++;
+        }
+
+        // Short flings still move by one badge
+        if (velocityX > 0 && mBadgeOffsetIndex.getStart(index) <= scrollOffset && index + 1 < mBadges.size()) {
+            index = mBadgeOffsetIndex.indexAt(scrollOffset) + 1;
+        } else if (velocityX < 0 && mBadgeOffsetIndex.getStart(index) >= scrollOffset && index > 0) {
+            index = mBadgeOffsetIndex.indexAt(scrollOffset - 1);
+        }
+        return mContentContainer.getLeft() + mBadgeOffsetIndex.getStart(Math.min(index, mBadges.size() - 1))
+                - getPaddingLeft();
+    }
+
+    /**
+     * Compute the range of visible badges into mFirstVisible and mLastVisible
+     */
+    private void computeVisibleRange() {
+        mFirstVisible = -1;
+        mLastVisible = -1;
+
+        final int count = mContentContainer.getDisplayedCount();
+        if (count == 0) {
+            return;
+        }
+        if (!isScrollingBadges()) {
+            mFirstVisible = 0;
+            mLastVisible = count - 1;
+            return;
+        }
+
+        // Viewport in the coordinates of the container
+        final int viewportStart = getScrollX() + getPaddingLeft() - mContentContainer.getLeft();
+        final int viewportEnd = viewportStart + getWidth() - getPaddingLeft() - getPaddingRight();
+
+        // The spacing after a badge belongs to it in the index, skip the badge if only its spacing is visible
+        int first = mBadgeOffsetIndex.indexAt(viewportStart);
+        if (mBadgeOffsetIndex.getEnd(first) <= viewportStart) {
+            first++;
+        }
+        final int last = mBadgeOffsetIndex.indexAt(viewportEnd - 1);
+        if (first <= last && mBadgeOffsetIndex.getStart(first) < viewportEnd) {
+            mFirstVisible = first;
+            mLastVisible = last;
+        }
+    }
+
+    private void dispatchVisibleBadgesChanged() {
+        if (mOnVisibleBadgesChangedListeners.isEmpty()) {
+            return;
+        }
+
+        computeVisibleRange();
+        if (!mVisibleBadgesStale && mFirstVisible == mDispatchedFirstVisible
+                && mLastVisible == mDispatchedLastVisible) {
+            return;
+        }
+
+        mVisibleBadgesStale = false;
+        mDispatchedFirstVisible = mFirstVisible;
+        mDispatchedLastVisible = mLastVisible;
+        for (int i = mOnVisibleBadgesChangedListeners.size() - 1; i >= 0; i--) {
+            mOnVisibleBadgesChangedListeners.get(i).onVisibleBadgesChanged(mFirstVisible, mLastVisible);
+        }
+    }
+
+    private void onVirtualizingChanged() {
+        for (int i = mContentContainer.getChildCount() - 1; i >= 0; i--) {
+            final BadgeView badgeView = (BadgeView) mContentContainer.getChildAt(i);
+            mContentContainer.removeViewAt(i);
+            recycleBadgeView(badgeView);
+        }
+
+        recreateBadgeViews();
+    }
+
+    /**
+     * Give every badge a new view, or none at all in virtualized mode, once existing views have been removed
+     */
+    private void recreateBadgeViews() {
+        mContentContainer.resetAttachedRange();
+        for (Badge badge : mBadges) {
+            badge.mMeasuredWidth = -1;
+            if (isVirtualizing()) {
+                badge.mView = null;
+            } else {
+                badge.mView = createBadgeView(badge);
+                addBadgeView(badge, mContentContainer.getChildCount());
+                bindClickHandling((View) badge.mView);
+            }
+        }
+        mContentContainer.requestLayout();
+    }
+
+    /**
+     * Measure a badge which has no view attached, using a detached view
+     */
+    private void measureDetachedBadge(Badge badge, int widthMeasureSpec, int heightMeasureSpec) {
+        if (mMeasureBadgeView == null) {
+            mMeasureBadgeView = newBadgeView();
+        }
+
+        final View measureView = (View) mMeasureBadgeView;
+        mMeasureBadgeView.setBadge(badge);
+        mMeasureBadgeView.update(DIRTY_ALL);
+        measureView.measure(widthMeasureSpec, heightMeasureSpec);
+        badge.mMeasuredWidth = measureView.getMeasuredWidth();
+        badge.mMeasuredHeight = measureView.getMeasuredHeight();
+        mMeasureBadgeView.setBadge(null);
+    }
+
+
+    /**
+     * A badge in this layout. Instances can be created via {@link #newBadge()}.
+     * <p>
+     * <p>Badges are created and added on the main thread, but their setters may be called from any
+     * thread. Changes made off the main thread are queued, and published to the layout together in one
+     * batch update on the main thread.</p>
+     */
+    public static final class Badge {
+        private volatile long mId = NO_ID;
+        private volatile Object mTag;
+        private volatile Drawable mIcon;
+        private volatile IconSource mIconSource;
+        private volatile CharSequence mText;
+        private volatile boolean mSelected = false;
+        private volatile boolean mEnabled = true;
+        private volatile float mWeight = 1f;
+
+        // Whether the badge is part of its parent, its cached position there and what it is indexed with
+        private boolean mAdded;
+        private int mPosition;
+        private long mIndexedId = NO_ID;
+        private Object mIndexedTag;
+
+        @Nullable
+        private BadgeLayout mParent;
+        @Nullable
+        private BadgeView mView;
+
+        // Last measured size, -1 if the badge needs to be measured again
+        private int mMeasuredWidth = -1;
+        private int mMeasuredHeight;
+
+        // Changes not applied to the view yet, and whether the badge is in its parent's mDirtyBadges
+        private int mPendingDirtyFlags;
+        private boolean mUpdateQueued;
+
+        // Changes made off the main thread and not published yet
+        private final AtomicInteger mBackgroundDirtyFlags = new AtomicInteger();
+
+        private Badge() {
+            // Private constructor
+        }
+
+        /**
+         * Clear everything, so that a pooled badge doesn't reference its layout, view, icon or tag
+         */
+        private void reset() {
+            mId = NO_ID;
+            mTag = null;
+            mIcon = null;
+            mIconSource = null;
+            mText = null;
+            mSelected = false;
+            mEnabled = true;
+            mWeight = 1f;
+
+            mAdded = false;
+            mPosition = 0;
+            mIndexedId = NO_ID;
+            mIndexedTag = null;
+
+            mParent = null;
+            mView = null;
+
+            mMeasuredWidth = -1;
+            mMeasuredHeight = 0;
+
+            // The badge may still be queued by its former layout, which skips it once flags are cleared
+            mPendingDirtyFlags = 0;
+            mUpdateQueued = false;
+            mBackgroundDirtyFlags.set(0);
+        }
+
+        /**
+         * Give this Badge an arbitrary object to hold for later use.
+         *
+         * @param tag Object to store
+         * @return The current instance for call chaining
+         */
+        public Badge setTag(@Nullable Object tag) {
+            mTag = tag;
+            updateIndex();
+            return this;
+        }
+
+        /**
+         * Give this Badge a stable id, to look it up via {@link BadgeLayout#findBadgeById(long)}.
+         *
+         * @param id Id of the badge, or {@link #NO_ID}
+         * @return The current instance for call chaining
+         */
+        @NonNull
+        public Badge setId(long id) {
+            mId = id;
+            updateIndex();
+            return this;
+        }
+
+        /**
+         * Return the id of this badge
+         *
+         * @return The badge's id, or {@link #NO_ID}
+         */
+        public long getId() {
+            return mId;
+        }
+
+        /**
+         * Set the text displayed on this badge. Text may be truncated if there is not room to display
+         * the entire string.
+         *
+         * @param text The text to display
+         * @return The current instance for call chaining
+         */
+        @NonNull
+        public Badge setText(@Nullable CharSequence text) {
+            mText = text;
+            updateView(DIRTY_TEXT);
+            return this;
+        }
+
+
+        /**
+         * Set the icon displayed on this badge.
+         *
+         * @param icon The drawable to use as an icon
+         * @return The current instance for call chaining
+         */
+        @NonNull
+        public Badge setIcon(@Nullable Drawable icon) {
+            mIconSource = null;
+            mIcon = icon;
+            updateView(DIRTY_ICON);
+            return this;
+        }
+
+        /**
+         * Set the icon displayed on this badge from a local image, decoded in the background and
+         * downsampled to fit the icon size of the layout. The placeholder of the layout is displayed
+         * meanwhile.
+         *
+         * @param iconSource The source of the icon
+         * @return The current instance for call chaining
+         * @see BadgeLayout#setBadgeIconSize(int)
+         * @see BadgeLayout#setBadgeIconPlaceholder(int)
+         */
+        @NonNull
+        public Badge setIcon(@Nullable IconSource iconSource) {
+            mIcon = null;
+            mIconSource = iconSource;
+            updateView(DIRTY_ICON);
+            return this;
+        }
+
+        /**
+         * Set the icon displayed on this badge from a local image uri
+         *
+         * @param iconUri The {@code file}, {@code content} or {@code android.resource} uri of the icon
+         * @return The current instance for call chaining
+         * @see #setIcon(IconSource)
+         */
+        @NonNull
+        public Badge setIcon(@NonNull Uri iconUri) {
+            return setIcon(IconSource.fromUri(iconUri));
+        }
+
+        /**
+         * Set the icon displayed on this badge from a drawable resource. Bitmaps are decoded like other icon
+         * sources, XML drawables are inflated, or rasterized if the layout rasterizes icons.
+         *
+         * @param iconResId The drawable resource of the icon
+         * @return The current instance for call chaining
+         * @see #setIcon(IconSource)
+         */
+        @NonNull
+        public Badge setIconResource(@DrawableRes int iconResId) {
+            return setIcon(IconSource.fromResource(iconResId));
+        }
+
+        /**
+         * Set the selection state of this badge
+         *
+         * @param selected The selection state
+         * @return The current instance for call chaining
+         */
+        @NonNull
+        public Badge setSelected(boolean selected) {
+            mSelected = selected;
+            updateView(DIRTY_STATE);
+            return this;
+        }
+
+        /**
+         * Set the enabled state of this badge
+         *
+         * @param enabled The enabled state
+         * @return The current instance for call chaining
+         */
+        @NonNull
+        public Badge setEnabled(boolean enabled) {
+            mEnabled = enabled;
+            updateView(DIRTY_STATE);
+            return this;
+        }
+
+        /**
+         * Set the share of the width of the layout this badge takes in {@link BadgeMode#FIXED} mode,
+         * relative to the weights of the other badges. Defaults to 1, badges share the width evenly.
+         *
+         * @param weight The weight, zero or positive
+         * @return The current instance for call chaining
+         */
+        @NonNull
+        public Badge setWeight(float weight) {
+            if (weight < 0) {
+                throw new IllegalArgumentException("Weight must be zero or positive, was " + weight);
+            }
+            mWeight = weight;
+            updateView(DIRTY_WEIGHT);
+            return this;
+        }
+
+        /**
+         * Return the weight of this badge in {@link BadgeMode#FIXED} mode
+         *
+         * @return The badge's weight
+         */
+        public float getWeight() {
+            return mWeight;
+        }
+
+        /**
+         * Return the tag object of this badge
+         *
+         * @return The badge's tag object;
+         */
+        @Nullable
+        public Object getTag() {
+            return mTag;
+        }
+
+        /**
+         * Return the text of this badge.
+         *
+         * @return The badge's text
+         */
+        @Nullable
+        public CharSequence getText() {
+            return mText;
+        }
+
+        private void updateIndex() {
+            if (Looper.myLooper() != Looper.getMainLooper()) {
+                postBackgroundUpdate(DIRTY_INDEX);
+            } else if (mParent != null) {
+                mParent.reindexBadge(this);
+            }
+        }
+
+        /**
+         * Record a change made off the main thread. The fields must be written before calling this.
+         */
+        private void postBackgroundUpdate(int dirtyFlags) {
+            int flags;
+            do {
+                flags = mBackgroundDirtyFlags.get();
+            } while (!mBackgroundDirtyFlags.compareAndSet(flags, flags | dirtyFlags));
+
+            final BadgeLayout parent = mParent;
+            if (parent == null) {
+                // Nothing to update, the view is bound with all properties once the badge is reused
+                mBackgroundDirtyFlags.set(0);
+            } else if (flags == 0) {
+                // Not queued yet
+                parent.postBackgroundUpdate(this);
+            }
+        }
+
+        /**
+         * Mark the badge as dirty. The view is updated on the next frame, or before the next measure.
+         */
+        private void updateView(int dirtyFlags) {
+            if (Looper.myLooper() != Looper.getMainLooper()) {
+                postBackgroundUpdate(dirtyFlags);
+                return;
+            }
+
+            mPendingDirtyFlags |= dirtyFlags;
+            if (mParent != null && !mUpdateQueued) {
+                mUpdateQueued = true;
+                mParent.mDirtyBadges.add(this);
+                mParent.scheduleUpdate();
+            }
+
+            if ((dirtyFlags & DIRTY_SIZE) != 0) {
+                mMeasuredWidth = -1;
+                if (mView == null && mParent != null) {
+                    // There's no view to request a layout on our behalf
+                    mParent.mContentContainer.requestLayout();
+                }
+            }
+            if ((dirtyFlags & DIRTY_WEIGHT) != 0 && mParent != null && mParent.mBadgeMode == BadgeMode.FIXED) {
+                mParent.mContentContainer.requestLayout();
+            }
+        }
+
+        private void applyPendingUpdates() {
+            mUpdateQueued = false;
+            if (mPendingDirtyFlags != 0) {
+                final int dirtyFlags = mPendingDirtyFlags;
+                mPendingDirtyFlags = 0;
+                if (mView != null) {
+                    mView.update(dirtyFlags);
+                }
+            }
+        }
+    }
+
+    /**
+     * Snapshot of the pooling statistics of a {@link BadgeLayout}
+     *
+     * @see #getPoolStats()
+     */
+    public static final class PoolStats {
+        private final int mBadgePoolSize;
+        private final int mBadgePoolHits;
+        private final int mBadgePoolMisses;
+        private final int mBadgeViewPoolSize;
+        private final int mBadgeViewPoolHits;
+        private final int mBadgeViewPoolMisses;
+
+        private PoolStats(int badgePoolSize, int badgePoolHits, int badgePoolMisses, int badgeViewPoolSize,
+                          int badgeViewPoolHits, int badgeViewPoolMisses) {
+            mBadgePoolSize = badgePoolSize;
+            mBadgePoolHits = badgePoolHits;
+            mBadgePoolMisses = badgePoolMisses;
+            mBadgeViewPoolSize = badgeViewPoolSize;
+            mBadgeViewPoolHits = badgeViewPoolHits;
+            mBadgeViewPoolMisses = badgeViewPoolMisses;
+        }
+
+        /**
+         * @return Number of badges in the process wide badge pool
+         */
+        public int getBadgePoolSize() {
+            return mBadgePoolSize;
+        }
+
+        /**
+         * @return Number of badges taken from the badge pool
+         */
+        public int getBadgePoolHits() {
+            return mBadgePoolHits;
+        }
+
+        /**
+         * @return Number of badges created because the badge pool was empty
+         */
+        public int getBadgePoolMisses() {
+            return mBadgePoolMisses;
+        }
+
+        /**
+         * @return Number of views in the badge view pool of the layout
+         */
+        public int getBadgeViewPoolSize() {
+            return mBadgeViewPoolSize;
+        }
+
+        /**
+         * @return Number of views taken from the badge view pool
+         */
+        public int getBadgeViewPoolHits() {
+            return mBadgeViewPoolHits;
+        }
+
+        /**
+         * @return Number of views created because the badge view pool was empty
+         */
+        public int getBadgeViewPoolMisses() {
+            return mBadgeViewPoolMisses;
+        }
+    }
+
+    /**
+     * Snapshot of the statistics of a cache used by badge layouts
+     *
+     * @see #getTextLayoutCacheStats()
+     * @see #getIconCacheStats()
+     * @see #getScrollingLayerStats()
+     */
+    public static final class CacheStats {
+        private final int mSize;
+        private final int mHits;
+        private final int mMisses;
+
+        private CacheStats(int size, int hits, int misses) {
+            mSize = size;
+            mHits = hits;
+            mMisses = misses;
+        }
+
+        /**
+         * @return Size of the cache, in entries unless stated otherwise
+         */
+        public int getSize() {
+            return mSize;
+        }
+
+        /**
+         * @return Number of lookups which found a cached entry
+         */
+        public int getHits() {
+            return mHits;
+        }
+
+        /**
+         * @return Number of lookups which had to create the entry
+         */
+        public int getMisses() {
+            return mMisses;
+        }
+    }
+
+    public enum BadgeTextPosition {
+        LEFT, TOP, RIGHT, BOTTOM
+    }
+
+    public enum BadgeMode {
+        SCROLLABLE,
+
+        /**
+         * Badges share the width of the layout, evenly or by {@link Badge#setWeight(float) weight}, and their
+         * text is ellipsized to fit. Fixed mode isn't virtualized.
+         */
+        FIXED,
+
+        /**
+         * Badges wrap onto as many lines as needed to fit the width of the layout, which grows vertically.
+         * Flow mode isn't virtualized.
+         */
+        FLOW
+    }
+
+    /**
+     * How each badge is rendered
+     */
+    public enum BadgeRenderMode {
+        /**
+         * Each badge is a layout holding an image view and a text view
+         */
+        VIEWS,
+
+        /**
+         * Each badge is a single view drawing its background, icon and text directly. Icons set from icon
+         * sources are drawn from an atlas shared by all badges of the layout.
+         */
+        FLATTENED
+    }
+
+    /**
+     * Lays out the badge views in a single row, with {@link #mSpacing} between badges and each badge
+     * centered vertically. In virtualized mode only the badges intersecting the visible window are
+     * attached, positioned from {@link #mBadgeOffsetIndex}.
+     */
+    private class BadgeContainer extends ViewGroup {
+        // Range of badges with views attached in virtualized mode
+        private int mFirstAttached = 0;
+        private int mLastAttached = -1;
+
+        private int mChildWidthMeasureSpec;
+        private int mChildHeightMeasureSpec;
+        private int mFlowChildWidthMeasureSpec = -1;
+
+        // Whether attaching views in virtualized mode has replaced estimated badge widths by measured ones
+        private boolean mWidthsRefined;
+        private final Runnable mRefinedLayoutRunnable = new Runnable() {
+            @Override
+            public void run() {
+                requestLayout();
+            }
+        };
+
+        // Number of badges displayed before the overflow badge when collapsing the overflow
+        private int mCutoff;
+        private Badge mOverflowBadge;
+        private BadgeView mOverflowView;
+
+        public BadgeContainer(Context context) {
+            super(context);
+        }
+
+        @Override
+        public boolean shouldDelayChildPressedState() {
+            return false;
+        }
+
+        // Badge pressed by the current gesture in hit test mode, and its view
+        private Badge mPressedBadge;
+        private View mPressedView;
+        private boolean mLongPressConsumed;
+        private float mDownX;
+        private float mDownY;
+        private final Runnable mLongPressRunnable = new Runnable() {
+            @Override
+            public void run() {
+                if (mPressedBadge != null && dispatchBadgeLongClicked(mPressedBadge)) {
+                    mLongPressConsumed = true;
+                    performHapticFeedback(HapticFeedbackConstants.LONG_PRESS);
+                }
+            }
+        };
+        private final Runnable mUnpressRunnable = new Runnable() {
+            @Override
+            public void run() {
+                if (mPressedView != null) {
+                    mPressedView.setPressed(false);
+                    mPressedView = null;
+                }
+            }
+        };
+
+        @Override
+        public boolean onTouchEvent(MotionEvent event) {
+            if (!mHitTestClicks) {
+                return super.onTouchEvent(event);
+            }
+
+            switch (event.getActionMasked()) {
+                case MotionEvent.ACTION_DOWN: {
+                    cancelPress();
+                    final View view = findBadgeViewAt((int) event.getX(), (int) event.getY());
+                    if (view == null) {
+                        return false;
+                    }
+
+                    mPressedBadge = ((BadgeView) view).getBadge();
+                    mPressedView = view;
+                    mLongPressConsumed = false;
+                    mDownX = event.getX();
+                    mDownY = event.getY();
+                    view.setPressed(true);
+                    postDelayed(mLongPressRunnable, ViewConfiguration.getLongPressTimeout());
+                    return true;
+                }
+
+                case MotionEvent.ACTION_MOVE: {
+                    final int touchSlop = ViewConfiguration.get(getContext()).getScaledTouchSlop();
+                    if (mPressedBadge != null && (Math.abs(event.getX() - mDownX) > touchSlop
+                            || Math.abs(event.getY() - mDownY) > touchSlop)) {
+                        cancelPress();
+                    }
+                    return true;
+                }
+
+                case MotionEvent.ACTION_UP: {
+                    final Badge badge = mPressedBadge;
+                    removeCallbacks(mLongPressRunnable);
+                    mPressedBadge = null;
+
+                    // Keep the pressed state visible for a moment, even after a short tap
+                    postDelayed(mUnpressRunnable, ViewConfiguration.getPressedStateDuration());
+
+                    // Released over the pressed badge, not the spacing or a badge next to it
+                    final View view = findBadgeViewAt((int) event.getX(), (int) event.getY());
+                    if (badge != null && !mLongPressConsumed && view == mPressedView
+                            && view != null && ((BadgeView) view).getBadge() == badge) {
+                        playSoundEffect(SoundEffectConstants.CLICK);
+                        dispatchBadgeClicked(badge);
+                        view.sendAccessibilityEvent(AccessibilityEvent.TYPE_VIEW_CLICKED);
+                    }
+                    return true;
+                }
+
+                case MotionEvent.ACTION_CANCEL:
+                    cancelPress();
+                    return true;
+
+                default:
+                    return true;
+            }
+        }
+
+        /**
+         * Drop the press of the current gesture, if any
+         */
+        void cancelPress() {
+            removeCallbacks(mLongPressRunnable);
+            removeCallbacks(mUnpressRunnable);
+            mUnpressRunnable.run();
+            mPressedBadge = null;
+        }
+
+        /**
+         * Find the attached badge view at the given position, by binary search over the badge positions
+         */
+        private View findBadgeViewAt(int x, int y) {
+            int index;
+            if (mBadgeMode == BadgeMode.FLOW) {
+                index = mBadgeFlowIndex.indexAt(x, y);
+            } else {
+                index = mBadgeOffsetIndex.indexAt(x);
+                if (index >= getDisplayedCount()) {
+                    // Hidden behind the overflow badge
+                    index = -1;
+                }
+            }
+            if (index < 0) {
+                return null;
+            }
+
+            // The index only tells which badge may contain the position, e.g. not the spacing after it
+            final View view = (View) mBadges.get(index).mView;
+            if (view == null || view.getParent() != this || x < view.getLeft() || x >= view.getRight()
+                    || y < view.getTop() || y >= view.getBottom()) {
+                return null;
+            }
+            return view;
+        }
+
+        @Override
+        protected void dispatchDraw(Canvas canvas) {
+            // Not called for frames drawn from the scrolling layer
+            mContentDrawn = true;
+            super.dispatchDraw(canvas);
+        }
+
+        @Override
+        public void requestLayout() {
+            if (mBatchUpdateDepth > 0) {
+                // Deferred to the end of the batch update
+                mLayoutRequestedInBatch = true;
+                return;
+            }
+            super.requestLayout();
+        }
+
+        @Override
+        protected void onMeasure(int widthMeasureSpec, int heightMeasureSpec) {
+            // Views must be up to date before they are measured
+            flushPendingUpdates();
+
+            mChildWidthMeasureSpec = getChildMeasureSpec(widthMeasureSpec, 0, LayoutParams.WRAP_CONTENT);
+            mChildHeightMeasureSpec = getChildMeasureSpec(heightMeasureSpec, 0, LayoutParams.WRAP_CONTENT);
+            if (mBadgeMode == BadgeMode.FLOW) {
+                measureFlow(widthMeasureSpec, heightMeasureSpec);
+                return;
+            }
+            mBadgeOffsetIndex.setSpacing(mSpacing);
+            if (mUniformBadgeSize && mBadgeMode == BadgeMode.SCROLLABLE && !mCollapseOverflow && !mBadges.isEmpty()) {
+                measureUniform(widthMeasureSpec, heightMeasureSpec);
+                return;
+            }
+            mBadgeOffsetIndex.setUniformWidth(-1);
+            if (mBadgeMode == BadgeMode.FIXED && MeasureSpec.getMode(widthMeasureSpec) != MeasureSpec.UNSPECIFIED) {
+                measureFixed(widthMeasureSpec, heightMeasureSpec);
+                return;
+            }
+            if (isCollapsingOverflow()) {
+                measureCollapsed(widthMeasureSpec, heightMeasureSpec);
+                return;
+            }
+            if (isVirtualizing()) {
+                measureVirtualized(widthMeasureSpec, heightMeasureSpec);
+                return;
+            }
+
+            int maxHeight = 0;
+            for (int i = 0; i < mBadges.size(); i++) {
+                measureBadgeAt(i);
+                maxHeight = Math.max(maxHeight, mBadges.get(i).mMeasuredHeight);
+            }
+
+            setMeasuredDimension(resolveSize(mBadgeOffsetIndex.getTotalWidth(), widthMeasureSpec),
+                    resolveSize(maxHeight, heightMeasureSpec));
+        }
+
+        /**
+         * Measure the attached badges, and the badges which haven't been measured yet up to the end of the
+         * attach window. Badges after it keep the width they were last measured with, or are given the average
+         * width of the measured badges until their view is attached, so a long strip costs no more to measure
+         * than the window.
+         */
+        private void measureVirtualized(int widthMeasureSpec, int heightMeasureSpec) {
+            final int windowEnd = getWindowStart() + getWindowWidth();
+
+            int measuredCount = 0;
+            long measuredWidthSum = 0;
+            int maxHeight = 0;
+            int start = 0;
+            for (int i = 0; i < mBadges.size(); i++) {
+                final Badge badge = mBadges.get(i);
+                final View view = (View) badge.mView;
+                if (view != null && view.getParent() == this) {
+                    view.measure(mChildWidthMeasureSpec, mChildHeightMeasureSpec);
+                    badge.mMeasuredWidth = view.getMeasuredWidth();
+                    badge.mMeasuredHeight = view.getMeasuredHeight();
+                } else if (badge.mMeasuredWidth < 0 && (start <= windowEnd || measuredCount == 0)) {
+                    measureDetachedBadge(badge, mChildWidthMeasureSpec, mChildHeightMeasureSpec);
+                }
+
+                final int width;
+                if (badge.mMeasuredWidth >= 0) {
+                    width = badge.mMeasuredWidth;
+                    measuredCount++;
+                    measuredWidthSum += width;
+                    maxHeight = Math.max(maxHeight, badge.mMeasuredHeight);
+                } else {
+                    // Refined once the view of the badge is attached
+                    width = (int) (measuredWidthSum / measuredCount);
+                }
+                mBadgeOffsetIndex.setWidth(i, width);
+                start += width + mSpacing;
+            }
+
+            setMeasuredDimension(resolveSize(mBadgeOffsetIndex.getTotalWidth(), widthMeasureSpec),
+                    resolveSize(maxHeight, heightMeasureSpec));
+        }
+
+        /**
+         * Measure the first badge only, and give its size to the attached views. Views whose spec and
+         * content haven't changed since they were last measured skip measuring.
+         */
+        private void measureUniform(int widthMeasureSpec, int heightMeasureSpec) {
+            measureBadgeAt(0);
+            final Badge first = mBadges.get(0);
+            mBadgeOffsetIndex.setUniformWidth(first.mMeasuredWidth);
+
+            // Views attached during the layout pass are measured with these as well
+            mChildWidthMeasureSpec = MeasureSpec.makeMeasureSpec(first.mMeasuredWidth, MeasureSpec.EXACTLY);
+            mChildHeightMeasureSpec = MeasureSpec.makeMeasureSpec(first.mMeasuredHeight, MeasureSpec.EXACTLY);
+            // Only the first badge is measured, the others are given its size unless they already have it
+            for (int i = 0; i < getChildCount(); i++) {
+                final View child = getChildAt(i);
+                if (child != first.mView && (child.isLayoutRequested()
+                        || child.getMeasuredWidth() != first.mMeasuredWidth
+                        || child.getMeasuredHeight() != first.mMeasuredHeight)) {
+                    child.measure(mChildWidthMeasureSpec, mChildHeightMeasureSpec);
+                }
+            }
+
+            setMeasuredDimension(resolveSize(mBadgeOffsetIndex.getTotalWidth(), widthMeasureSpec),
+                    resolveSize(first.mMeasuredHeight, heightMeasureSpec));
+        }
+
+        /**
+         * Split the width evenly, or by weight, between the badges and measure each of them exactly once at
+         * its share, which ellipsizes text that doesn't fit
+         */
+        private void measureFixed(int widthMeasureSpec, int heightMeasureSpec) {
+            final int count = mBadges.size();
+            final int width = MeasureSpec.getSize(widthMeasureSpec);
+            final int available = Math.max(0, width - mSpacing * Math.max(0, count - 1));
+
+            float totalWeight = 0;
+            for (int i = 0; i < count; i++) {
+                totalWeight += mBadges.get(i).getWeight();
+            }
+
+            // Shares are rounded from the running total, so that they add up to the available width
+            int maxHeight = 0;
+            float weightSum = 0;
+            int shareStart = 0;
+            for (int i = 0; i < count; i++) {
+                final Badge badge = mBadges.get(i);
+                weightSum += badge.getWeight();
+                final int shareEnd = totalWeight > 0 ? Math.round(available * weightSum / totalWeight)
+                        : available * (i + 1) / count;
+                final int badgeWidthMeasureSpec = MeasureSpec.makeMeasureSpec(shareEnd - shareStart, MeasureSpec.EXACTLY);
+                shareStart = shareEnd;
+
+                final View view = (View) badge.mView;
+                if (view != null && view.getParent() == this) {
+                    view.measure(badgeWidthMeasureSpec, mChildHeightMeasureSpec);
+                    badge.mMeasuredWidth = view.getMeasuredWidth();
+                    badge.mMeasuredHeight = view.getMeasuredHeight();
+                } else {
+                    measureDetachedBadge(badge, badgeWidthMeasureSpec, mChildHeightMeasureSpec);
+                }
+                mBadgeOffsetIndex.setWidth(i, badge.mMeasuredWidth);
+                maxHeight = Math.max(maxHeight, badge.mMeasuredHeight);
+            }
+
+            setMeasuredDimension(width, resolveSize(maxHeight, heightMeasureSpec));
+        }
+
+        private void measureBadgeAt(int index) {
+            final Badge badge = mBadges.get(index);
+            final View view = (View) badge.mView;
+            if (view != null && view.getParent() == this) {
+                view.measure(mChildWidthMeasureSpec, mChildHeightMeasureSpec);
+                badge.mMeasuredWidth = view.getMeasuredWidth();
+                badge.mMeasuredHeight = view.getMeasuredHeight();
+            } else if (badge.mMeasuredWidth < 0) {
+                measureDetachedBadge(badge, mChildWidthMeasureSpec, mChildHeightMeasureSpec);
+            }
+
+            mBadgeOffsetIndex.setWidth(index, badge.mMeasuredWidth);
+        }
+
+        /**
+         * Measure the badges in order until one doesn't fit, then find how many badges fit before the
+         * overflow badge. Badges after the first one which doesn't fit are never measured.
+         */
+        private void measureCollapsed(int widthMeasureSpec, int heightMeasureSpec) {
+            final int maxWidth = MeasureSpec.getMode(widthMeasureSpec) == MeasureSpec.UNSPECIFIED
+                    ? Integer.MAX_VALUE : MeasureSpec.getSize(widthMeasureSpec);
+            final int count = mBadges.size();
+
+            int measuredCount = 0;
+            boolean overflowing = false;
+            while (measuredCount < count && !overflowing) {
+                measureBadgeAt(measuredCount);
+                overflowing = mBadgeOffsetIndex.getEnd(measuredCount) > maxWidth;
+                measuredCount++;
+            }
+
+            mCutoff = count;
+            int width = count > 0 ? mBadgeOffsetIndex.getEnd(count - 1) : 0;
+            int maxHeight = 0;
+            if (overflowing) {
+                // Room is left for the widest overflow badge, the one hiding every badge
+                measureOverflow(count);
+                final int overflowWidth = ((View) mOverflowView).getMeasuredWidth();
+                mCutoff = mBadgeOffsetIndex.lastIndexEndingBefore(maxWidth - overflowWidth - mSpacing,
+                        measuredCount) + 1;
+
+                measureOverflow(count - mCutoff);
+                final View overflowView = (View) mOverflowView;
+                width = getOverflowLeft() + overflowView.getMeasuredWidth();
+                maxHeight = overflowView.getMeasuredHeight();
+            }
+
+            for (int i = 0; i < mCutoff; i++) {
+                maxHeight = Math.max(maxHeight, mBadges.get(i).mMeasuredHeight);
+            }
+
+            setMeasuredDimension(resolveSize(width, widthMeasureSpec), resolveSize(maxHeight, heightMeasureSpec));
+        }
+
+        private void measureOverflow(int hiddenCount) {
+            if (mOverflowBadge == null) {
+                mOverflowBadge = new Badge();
+                mOverflowBadge.mParent = BadgeLayout.this;
+            }
+            if (mOverflowView == null) {
+                mOverflowView = newBadgeView();
+                mOverflowView.setBadge(mOverflowBadge);
+            }
+
+            // Bound directly, as the overflow badge isn't part of the badges updated by the layout
+            mOverflowBadge.mText = "+" + hiddenCount;
+            mOverflowView.update(DIRTY_ALL);
+            ((View) mOverflowView).measure(mChildWidthMeasureSpec, mChildHeightMeasureSpec);
+        }
+
+        private int getOverflowLeft() {
+            return mCutoff > 0 ? mBadgeOffsetIndex.getEnd(mCutoff - 1) + mSpacing : 0;
+        }
+
+        boolean isOverflowView(BadgeView badgeView) {
+            return badgeView != null && badgeView == mOverflowView;
+        }
+
+        /**
+         * Get the number of badges displayed, i.e. not hidden behind the overflow badge
+         */
+        int getDisplayedCount() {
+            return isCollapsingOverflow() ? Math.min(mCutoff, mBadges.size())
+                    : mBadges.size();
+        }
+
+        private boolean isCollapsingOverflow() {
+            return mCollapseOverflow && mBadgeMode == BadgeMode.SCROLLABLE;
+        }
+
+        int getOverflowCount() {
+            return isCollapsingOverflow() ? Math.max(0, mBadges.size() - mCutoff) : 0;
+        }
+
+        /**
+         * Forget the overflow view, e.g. once views of another render mode are needed
+         */
+        void dropOverflowView() {
+            if (mOverflowView != null) {
+                if (((View) mOverflowView).getParent() == this) {
+                    removeView((View) mOverflowView);
+                }
+                mOverflowView = null;
+            }
+        }
+
+        private void layoutOverflow() {
+            final boolean overflowing = isCollapsingOverflow() && mCutoff < mBadges.size() && mOverflowView != null;
+            final View overflowView = (View) mOverflowView;
+            if (!overflowing) {
+                if (overflowView != null && overflowView.getParent() == this) {
+                    removeViewInLayout(overflowView);
+                }
+                return;
+            }
+
+            if (overflowView.getParent() == null) {
+                addViewInLayout(overflowView, -1, generateDefaultLayoutParams(), true);
+            }
+            final int left = getOverflowLeft();
+            final int top = (getHeight() - overflowView.getMeasuredHeight()) / 2;
+            overflowView.layout(left, top, left + overflowView.getMeasuredWidth(), top + overflowView.getMeasuredHeight());
+        }
+
+        /**
+         * Measure the badges whose size may have changed, and wrap them onto lines. Lines are only broken
+         * again from the first badge whose size has changed.
+         */
+        private void measureFlow(int widthMeasureSpec, int heightMeasureSpec) {
+            // Badges are unbounded vertically, and all need measuring again if their bounds have changed
+            mChildHeightMeasureSpec = MeasureSpec.makeMeasureSpec(0, MeasureSpec.UNSPECIFIED);
+            final boolean measureAll = mChildWidthMeasureSpec != mFlowChildWidthMeasureSpec;
+            mFlowChildWidthMeasureSpec = mChildWidthMeasureSpec;
+            mBadgeFlowIndex.setSpacing(mSpacing);
+            mBadgeFlowIndex.setMaxWidth(MeasureSpec.getMode(widthMeasureSpec) == MeasureSpec.UNSPECIFIED
+                    ? Integer.MAX_VALUE : MeasureSpec.getSize(widthMeasureSpec));
+
+            for (int i = 0; i < mBadges.size(); i++) {
+                final Badge badge = mBadges.get(i);
+                final View view = (View) badge.mView;
+                if (view != null && (measureAll || view.isLayoutRequested() || badge.mMeasuredWidth < 0)) {
+                    view.measure(mChildWidthMeasureSpec, mChildHeightMeasureSpec);
+                    badge.mMeasuredWidth = view.getMeasuredWidth();
+                    badge.mMeasuredHeight = view.getMeasuredHeight();
+                }
+                mBadgeFlowIndex.setSize(i, Math.max(0, badge.mMeasuredWidth), badge.mMeasuredHeight);
+            }
+
+            setMeasuredDimension(resolveSize(mBadgeFlowIndex.getTotalWidth(), widthMeasureSpec),
+                    resolveSize(mBadgeFlowIndex.getTotalHeight(), heightMeasureSpec));
+        }
+
+        @Override
+        protected void onLayout(boolean changed, int l, int t, int r, int b) {
+            if (mBadgeMode == BadgeMode.FLOW) {
+                for (int i = 0; i < mBadges.size(); i++) {
+                    final View view = (View) mBadges.get(i).mView;
+                    if (view != null) {
+                        // Centered vertically in its line
+                        final int left = mBadgeFlowIndex.getLeft(i);
+                        final int top = mBadgeFlowIndex.getLineTop(i)
+                                + (mBadgeFlowIndex.getLineHeight(i) - view.getMeasuredHeight()) / 2;
+                        view.layout(left, top, left + view.getMeasuredWidth(), top + view.getMeasuredHeight());
+                    }
+                }
+                return;
+            }
+
+            if (isVirtualizing()) {
+                mWidthsRefined = false;
+                updateAttachedRange();
+                for (int i = mFirstAttached; i <= mLastAttached; i++) {
+                    layoutBadgeAt(i);
+                }
+                layoutOverflow();
+
+                if (mWidthsRefined) {
+                    // The measured size of this container includes estimated widths
+                    post(mRefinedLayoutRunnable);
+                }
+            } else {
+                for (int i = 0; i < mBadges.size(); i++) {
+                    layoutBadgeAt(i);
+                }
+            }
+        }
+
+        /**
+         * Attach the badges scrolled into the visible window and recycle the ones scrolled out of it,
+         * without requesting a layout
+         */
+        void onViewportChanged() {
+            if (isLayoutRequested()) {
+                // Window is updated by the pending layout pass
+                return;
+            }
+
+            final int firstAttached = mFirstAttached;
+            final int lastAttached = mLastAttached;
+            mWidthsRefined = false;
+            updateAttachedRange();
+            for (int i = mFirstAttached; i <= mLastAttached; i++) {
+                // Badges after one whose width was estimated have moved
+                if (mWidthsRefined || i < firstAttached || i > lastAttached) {
+                    layoutBadgeAt(i);
+                }
+            }
+            invalidate();
+
+            if (mWidthsRefined) {
+                // The measured size of this container includes estimated widths
+                requestLayout();
+            }
+        }
+
+        /**
+         * Keep the attached range pointing at the same badges once a badge has been inserted
+         */
+        void onBadgeInserted(int index) {
+            if (index < mFirstAttached) {
+                mFirstAttached++;
+                mLastAttached++;
+            } else if (index <= mLastAttached) {
+                // The inserted badge is attached in the next layout pass
+                mLastAttached++;
+            }
+        }
+
+        /**
+         * Keep the attached range pointing at the same badges once a badge, and its view, have been removed
+         */
+        void onBadgeRemoved(int index) {
+            if (index < mFirstAttached) {
+                mFirstAttached--;
+                mLastAttached--;
+            } else if (index <= mLastAttached) {
+                mLastAttached--;
+            }
+        }
+
+        void recycleAttachedViews() {
+            for (int i = mFirstAttached; i <= mLastAttached; i++) {
+                detachBadgeAt(i);
+            }
+            resetAttachedRange();
+        }
+
+        void detachBadgeView(View view) {
+            detachViewFromParent(view);
+        }
+
+        void attachBadgeView(View view, int index) {
+            attachViewToParent(view, index, view.getLayoutParams());
+        }
+
+        void resetAttachedRange() {
+            mFirstAttached = 0;
+            mLastAttached = -1;
+        }
+
+        private void updateAttachedRange() {
+            boolean refined;
+            do {
+                // Attached badges whose width was estimated move the ones after them, attach those again
+                final boolean widthsRefined = mWidthsRefined;
+                mWidthsRefined = false;
+                attachWindow();
+                refined = mWidthsRefined;
+                mWidthsRefined |= widthsRefined;
+            } while (refined);
+        }
+
+        private void attachWindow() {
+            int first = 0;
+            int last = -1;
+            if (isCollapsingOverflow()) {
+                // Everything before the overflow badge is visible, the rest is hidden
+                last = Math.min(mCutoff, mBadges.size()) - 1;
+            } else if (!mBadges.isEmpty()) {
+                final int windowStart = getWindowStart();
+                first = mBadgeOffsetIndex.indexAt(windowStart);
+                last = mBadgeOffsetIndex.indexAt(windowStart + getWindowWidth());
+            }
+
+            // Recycle the views of badges which have left the window
+            for (int i = mFirstAttached; i <= mLastAttached; i++) {
+                if (i < first || i > last) {
+                    detachBadgeAt(i);
+                }
+            }
 
+            for (int i = first; i <= last; i++) {
+                if (mBadges.get(i).mView == null) {
+                    attachBadgeAt(i);
+                }
+            }
 
-        /**
-         * Set the icon displayed on this badge.
-         *
-         * @param icon The drawable to use as an icon
-         * @return The current instance for call chaining
-         */
-        @NonNull
-        public Badge setIcon(@Nullable Drawable icon) {
-            mIcon = icon;
-            updateView();
-            return this;
+            mFirstAttached = first;
+            mLastAttached = last;
         }
 
         /**
-         * Set the selection state of this badge
-         *
-         * @param selected The selection state
-         * @return The current instance for call chaining
+         * Get the start of the attach window in the coordinates of this container: the viewport, extended by
+         * a prefetch margin on both sides
          */
-        @NonNull
-        public Badge setSelected(boolean selected) {
-            mSelected = selected;
-            updateView();
-            return this;
+        private int getWindowStart() {
+            return BadgeLayout.this.getScrollX() - getLeft() - getViewportWidth() / 4;
         }
 
-        /**
-         * Set the enabled state of this badge
-         *
-         * @param enabled The enabled state
-         * @return The current instance for call chaining
-         */
-        @NonNull
-        public Badge setEnabled(boolean enabled) {
-            mEnabled = enabled;
-            updateView();
-            return this;
+        private int getWindowWidth() {
+            final int viewportWidth = getViewportWidth();
+            return viewportWidth + 2 * (viewportWidth / 4);
         }
 
-        /**
-         * Return the tag object of this badge
-         *
-         * @return The badge's tag object;
-         */
-        @Nullable
-        public Object getTag() {
-            return mTag;
+        private int getViewportWidth() {
+            final int width = BadgeLayout.this.getWidth();
+            // Not laid out yet when first measured, assume the layout spans the screen
+            return width > 0 ? width : getResources().getDisplayMetrics().widthPixels;
         }
 
-        /**
-         * Return the text of this badge.
-         *
-         * @return The badge's text
-         */
-        @Nullable
-        public CharSequence getText() {
-            return mText;
+        private void attachBadgeAt(int index) {
+            final Badge badge = mBadges.get(index);
+            badge.mView = createBadgeView(badge);
+
+            final View view = (View) badge.mView;
+            bindClickHandling(view);
+            addViewInLayout(view, -1, generateDefaultLayoutParams(), true);
+            view.measure(mChildWidthMeasureSpec, mChildHeightMeasureSpec);
+            badge.mMeasuredWidth = view.getMeasuredWidth();
+            badge.mMeasuredHeight = view.getMeasuredHeight();
+
+            if (mBadgeOffsetIndex.getWidth(index) != badge.mMeasuredWidth) {
+                // The width was estimated, or the badge has changed since it was measured
+                mBadgeOffsetIndex.setWidth(index, badge.mMeasuredWidth);
+                mWidthsRefined = true;
+            }
         }
 
-        private void updateView() {
-            if (mView != null) {
-                mView.update();
+        private void detachBadgeAt(int index) {
+            if (index >= mBadges.size()) {
+                return;
+            }
+
+            final Badge badge = mBadges.get(index);
+            if (badge.mView != null) {
+                removeViewInLayout((View) badge.mView);
+                recycleBadgeView(badge.mView);
+                badge.mView = null;
             }
         }
-    }
 
-    public enum BadgeTextPosition {
-        LEFT, TOP, RIGHT, BOTTOM
+        private void layoutBadgeAt(int index) {
+            final View view = (View) mBadges.get(index).mView;
+            if (view != null) {
+                final int left = mBadgeOffsetIndex.getStart(index);
+                final int top = (getHeight() - view.getMeasuredHeight()) / 2;
+                view.layout(left, top, left + view.getMeasuredWidth(), top + view.getMeasuredHeight());
+            }
+        }
     }
 
-    public enum BadgeMode {
-        SCROLLABLE, FIXED
+    /**
+     * A view displaying a badge. Implementations must be {@link View} subclasses.
+     */
+    private interface BadgeView {
+        Badge getBadge();
+
+        /**
+         * Bind the view to a badge. The view is only updated by a following {@link #update(int)}.
+         */
+        void setBadge(@Nullable Badge badge);
+
+        void update(int dirtyFlags);
     }
 
     /**
      * The default badge view
      */
-    private class BadgeView extends LinearLayout {
+    private static class DefaultBadgeView extends LinearLayout implements BadgeView, IconLoader.Callback {
         private Badge mBadge;
+        private BadgeLayout mLayout;
         private final ImageView mImageView;
         private final TextView mTextView;
 
-        public BadgeView(Context context) {
+        // Load of the icon source of the badge, if any, and the bitmap displayed as icon
+        private IconLoader.Request mIconRequest;
+        private Bitmap mIconBitmap;
+
+        // What has been applied to the views, so unchanged properties can be skipped
+        private BadgeTextPosition mAppliedTextPosition;
+        private int mAppliedContentSpacing;
+        private int mAppliedBackgroundResId = -1;
+
+        public DefaultBadgeView(Context context) {
             super(context);
 
             mImageView = new ImageView(context);
@@ -615,7 +3638,7 @@ public class BadgeLayout extends HorizontalScrollView {
             mTextView.setLines(1);
             mTextView.setEllipsize(TextUtils.TruncateAt.END);
 
-            update();
+            setGravity(Gravity.CENTER);
         }
 
         @Override
@@ -634,23 +3657,95 @@ public class BadgeLayout extends HorizontalScrollView {
             mTextView.setEnabled(enabled);
         }
 
-        private void setBadge(@Nullable final Badge badge) {
-            if (badge != mBadge) {
-                mBadge = badge;
-                update();
+        @Override
+        public Badge getBadge() {
+            return mBadge;
+        }
+
+        @Override
+        public void setBadge(@Nullable final Badge badge) {
+            // Loads for a previous badge are of no use anymore, e.g. once recycled into the pool
+            cancelIconLoad();
+
+            mBadge = badge;
+            // Style is taken from the layout of the badge, views may move between layouts sharing a pool
+            mLayout = badge != null ? badge.mParent : null;
+        }
+
+        @Override
+        public final void update(int dirtyFlags) {
+            if (mLayout == null) {
+                return;
+            }
+
+            if ((dirtyFlags & DIRTY_LAYOUT) != 0) {
+                updateLayout();
+            }
+            if ((dirtyFlags & DIRTY_BACKGROUND) != 0) {
+                updateBackground();
+            }
+            if (mBadge != null) {
+                updateContent(dirtyFlags);
+            }
+        }
+
+        @Override
+        public void onIconLoaded(@NonNull IconSource iconSource, @Nullable Bitmap bitmap) {
+            mIconRequest = null;
+            if (bitmap != null) {
+                setIconBitmap(bitmap);
+            }
+        }
+
+        private void bindIcon() {
+            cancelIconLoad();
+
+            final IconSource iconSource = mBadge.mIconSource;
+            if (iconSource == null) {
+                mIconBitmap = null;
+                mImageView.setImageDrawable(mBadge.mIcon);
+                return;
+            }
+
+            final Bitmap bitmap = mLayout.getIconBitmap(mBadge, iconSource);
+            if (bitmap != null) {
+                setIconBitmap(bitmap);
+            } else if (iconSource.isRasterized(getContext())) {
+                // Drawables which aren't rasterized keep their states and animations
+                mIconBitmap = null;
+                mImageView.setImageDrawable(mLayout.mRasterizeIcons ? null : iconSource.loadDrawable(getContext()));
+            } else {
+                mIconBitmap = null;
+                mImageView.setImageDrawable(mLayout.newIconPlaceholder());
+                mIconRequest = IconLoader.load(getContext(), iconSource, mLayout.mBadgeIconSize,
+                        mLayout.mIconExecutor, this);
+            }
+        }
+
+        private void setIconBitmap(@NonNull Bitmap bitmap) {
+            // Bitmaps are shared, only the lightweight drawable wrapping them is created per view
+            if (bitmap != mIconBitmap) {
+                mIconBitmap = bitmap;
+                mImageView.setImageDrawable(new BitmapDrawable(getResources(), bitmap));
             }
         }
 
-        final void update() {
-            updateLayout();
-            updateContent();
+        private void cancelIconLoad() {
+            if (mIconRequest != null) {
+                mIconRequest.cancel();
+                mIconRequest = null;
+            }
         }
 
         private void updateLayout() {
-            setGravity(Gravity.CENTER);
-            setBackgroundResource(mBadgeBackgroundResId);
+            if (mAppliedTextPosition == mLayout.mBadgeTextPosition && mAppliedContentSpacing == mLayout.mBadgeContentSpacing) {
+                // Nothing structural has changed
+                return;
+            }
+            mAppliedTextPosition = mLayout.mBadgeTextPosition;
+            mAppliedContentSpacing = mLayout.mBadgeContentSpacing;
 
-            if (mBadgeTextPosition == BadgeTextPosition.LEFT || mBadgeTextPosition == BadgeTextPosition.RIGHT) {
+            if (mLayout.mBadgeTextPosition == BadgeTextPosition.LEFT || mLayout.mBadgeTextPosition == BadgeTextPosition.RIGHT) {
                 setOrientation(HORIZONTAL);
             } else {
                 setOrientation(VERTICAL);
@@ -660,49 +3755,453 @@ public class BadgeLayout extends HorizontalScrollView {
 
             LayoutParams textViewLayoutParams = new LayoutParams(ViewGroup.LayoutParams.WRAP_CONTENT, ViewGroup.LayoutParams.WRAP_CONTENT);
             LayoutParams imageViewLayoutParams = new LayoutParams(ViewGroup.LayoutParams.WRAP_CONTENT, ViewGroup.LayoutParams.WRAP_CONTENT);
-            switch (mBadgeTextPosition) {
+            switch (mLayout.mBadgeTextPosition) {
                 case LEFT:
-                    textViewLayoutParams.rightMargin = mBadgeContentSpacing;
+                    textViewLayoutParams.rightMargin = mLayout.mBadgeContentSpacing;
                     addView(mTextView, textViewLayoutParams);
                     addView(mImageView, imageViewLayoutParams);
                     break;
 
                 case TOP:
-                    textViewLayoutParams.bottomMargin = mBadgeContentSpacing;
+                    textViewLayoutParams.bottomMargin = mLayout.mBadgeContentSpacing;
                     addView(mTextView, textViewLayoutParams);
                     addView(mImageView, imageViewLayoutParams);
                     break;
 
                 case RIGHT:
-                    textViewLayoutParams.leftMargin = mBadgeContentSpacing;
+                    textViewLayoutParams.leftMargin = mLayout.mBadgeContentSpacing;
                     addView(mImageView, imageViewLayoutParams);
                     addView(mTextView, textViewLayoutParams);
                     break;
 
                 case BOTTOM:
-                    textViewLayoutParams.topMargin = mBadgeContentSpacing;
+                    textViewLayoutParams.topMargin = mLayout.mBadgeContentSpacing;
                     addView(mImageView, imageViewLayoutParams);
                     addView(mTextView, textViewLayoutParams);
                     break;
             }
         }
 
-        private void updateContent() {
-            if (mBadge != null) {
-                mImageView.setImageDrawable(mBadge.mIcon);
+        private void updateBackground() {
+            if (mAppliedBackgroundResId != mLayout.mBadgeBackgroundResId) {
+                mAppliedBackgroundResId = mLayout.mBadgeBackgroundResId;
+                ViewCompat.setBackground(this, mLayout.newBadgeBackground());
+            }
+        }
+
+        private void updateContent(int dirtyFlags) {
+            if ((dirtyFlags & DIRTY_ICON) != 0) {
+                bindIcon();
+            }
 
-                mTextView.setText(mBadge.mText);
-                mTextView.setTextColor(mBadgeTextColors);
-                mTextView.setTextSize(mBadgeTextSize);
+            if ((dirtyFlags & DIRTY_TEXT) != 0) {
+                // Re-binding the same label must not lay out the text view again
+                if (!TextUtils.equals(mTextView.getText(), mBadge.mText)) {
+                    mTextView.setText(mBadge.mText);
+                }
                 if (TextUtils.isEmpty(mTextView.getText())) {
                     mTextView.setVisibility(GONE);
                 } else {
                     mTextView.setVisibility(VISIBLE);
                 }
+            }
+
+            if ((dirtyFlags & DIRTY_TEXT_STYLE) != 0) {
+                mTextView.setTextColor(mLayout.mBadgeTextColors);
+                mTextView.setTextSize(mLayout.mBadgeTextSize);
+            }
 
+            if ((dirtyFlags & DIRTY_STATE) != 0) {
+                // Only refreshes the drawable state, no layout is requested
                 setSelected(mBadge.mSelected);
                 setEnabled(mBadge.mEnabled);
+
+                if ((dirtyFlags & DIRTY_ICON) == 0 && mLayout.hasRasterizedIcon(mBadge)) {
+                    // Rasterized icons are rendered for the state of the badge
+                    bindIcon();
+                }
+            }
+        }
+    }
+
+    /**
+     * A badge view which measures and draws its background, icon and text itself, without any child views
+     */
+    private static class FlatBadgeView extends View implements BadgeView, IconLoader.Callback {
+        private Badge mBadge;
+        private BadgeLayout mLayout;
+        private Drawable mIcon;
+
+        // Load of the icon source of the badge, if any
+        private IconLoader.Request mIconRequest;
+
+        // Entry of the icon bitmap in the icon atlas of the layout it has been packed by
+        private IconAtlas.Entry mAtlasEntry;
+        private CharSequence mText;
+        private final TextPaint mTextPaint = new TextPaint(Paint.ANTI_ALIAS_FLAG);
+
+        // Single line text layout, kept until the text, text size or available width changes
+        private StaticLayout mTextLayout;
+        private int mTextLayoutMaxWidth = -1;
+
+        private int mIconLeft;
+        private int mIconTop;
+        private int mTextLeft;
+        private int mTextTop;
+
+        // What has been applied to the view, so unchanged properties can be skipped
+        private BadgeTextPosition mAppliedTextPosition;
+        private int mAppliedContentSpacing;
+        private int mAppliedBackgroundResId = -1;
+
+        public FlatBadgeView(Context context) {
+            super(context);
+        }
+
+        @Override
+        public Badge getBadge() {
+            return mBadge;
+        }
+
+        @Override
+        public void setBadge(@Nullable final Badge badge) {
+            // Loads for a previous badge are of no use anymore, e.g. once recycled into the pool
+            cancelIconLoad();
+            if (badge == null || badge != mBadge) {
+                // Pooled views must not keep the icon, nor the atlas it is drawn from
+                clearIconBitmap();
+                setIcon(null);
+            }
+
+            mBadge = badge;
+            // Style is taken from the layout of the badge, views may move between layouts sharing a pool
+            mLayout = badge != null ? badge.mParent : null;
+        }
+
+        @Override
+        public final void update(int dirtyFlags) {
+            if (mLayout == null) {
+                return;
+            }
+
+            if ((dirtyFlags & DIRTY_LAYOUT) != 0) {
+                if (mAppliedTextPosition != mLayout.mBadgeTextPosition
+                        || mAppliedContentSpacing != mLayout.mBadgeContentSpacing) {
+                    mAppliedTextPosition = mLayout.mBadgeTextPosition;
+                    mAppliedContentSpacing = mLayout.mBadgeContentSpacing;
+                    requestLayout();
+                }
+            }
+
+            if ((dirtyFlags & DIRTY_BACKGROUND) != 0) {
+                if (mAppliedBackgroundResId != mLayout.mBadgeBackgroundResId) {
+                    mAppliedBackgroundResId = mLayout.mBadgeBackgroundResId;
+                    ViewCompat.setBackground(this, mLayout.newBadgeBackground());
+                }
+            }
+
+            if ((dirtyFlags & DIRTY_TEXT_STYLE) != 0) {
+                final float textSize = TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_SP, mLayout.mBadgeTextSize,
+                        getResources().getDisplayMetrics());
+                if (mTextPaint.getTextSize() != textSize) {
+                    mTextPaint.setTextSize(textSize);
+                    invalidateTextLayout();
+                }
+                updateTextColor();
+            }
+
+            if (mBadge != null) {
+                if ((dirtyFlags & DIRTY_ICON) != 0) {
+                    bindIcon();
+                }
+
+                if ((dirtyFlags & DIRTY_TEXT) != 0) {
+                    if (!TextUtils.equals(mText, mBadge.mText)) {
+                        mText = mBadge.mText;
+                        invalidateTextLayout();
+
+                        // The text is drawn rather than held by a text view, accessibility services read it here
+                        setContentDescription(mText);
+                    }
+                }
+
+                if ((dirtyFlags & DIRTY_STATE) != 0) {
+                    // Only refreshes the drawable state, no layout is requested
+                    setSelected(mBadge.mSelected);
+                    setEnabled(mBadge.mEnabled);
+
+                    if ((dirtyFlags & DIRTY_ICON) == 0 && mLayout.hasRasterizedIcon(mBadge)) {
+                        // Rasterized icons are rendered for the state of the badge
+                        bindIcon();
+                    }
+                }
+            }
+        }
+
+        @Override
+        protected void onMeasure(int widthMeasureSpec, int heightMeasureSpec) {
+            final boolean horizontal = isHorizontal();
+            final int iconWidth = getIconWidth();
+            final int iconHeight = getIconHeight();
+            final int contentSpacing = TextUtils.isEmpty(mText) ? 0 : mAppliedContentSpacing;
+
+            // Text width is limited by whatever is left once padding, icon and spacing are taken away
+            int maxTextWidth = Integer.MAX_VALUE;
+            if (MeasureSpec.getMode(widthMeasureSpec) != MeasureSpec.UNSPECIFIED) {
+                maxTextWidth = MeasureSpec.getSize(widthMeasureSpec) - getPaddingLeft() - getPaddingRight();
+                if (horizontal) {
+                    maxTextWidth -= iconWidth + contentSpacing;
+                }
+            }
+            buildTextLayout(Math.max(0, maxTextWidth));
+
+            final int textWidth = mTextLayout != null ? mTextLayout.getWidth() : 0;
+            final int textHeight = mTextLayout != null ? mTextLayout.getHeight() : 0;
+
+            int contentWidth;
+            int contentHeight;
+            if (horizontal) {
+                contentWidth = iconWidth + contentSpacing + textWidth;
+                contentHeight = Math.max(iconHeight, textHeight);
+            } else {
+                contentWidth = Math.max(iconWidth, textWidth);
+                contentHeight = iconHeight + contentSpacing + textHeight;
+            }
+
+            final int width = Math.max(contentWidth + getPaddingLeft() + getPaddingRight(), getSuggestedMinimumWidth());
+            final int height = Math.max(contentHeight + getPaddingTop() + getPaddingBottom(), getSuggestedMinimumHeight());
+            setMeasuredDimension(resolveSize(width, widthMeasureSpec), resolveSize(height, heightMeasureSpec));
+        }
+
+        @Override
+        protected void onLayout(boolean changed, int left, int top, int right, int bottom) {
+            final int innerLeft = getPaddingLeft();
+            final int innerTop = getPaddingTop();
+            final int innerWidth = right - left - getPaddingLeft() - getPaddingRight();
+            final int innerHeight = bottom - top - getPaddingTop() - getPaddingBottom();
+
+            final int iconWidth = getIconWidth();
+            final int iconHeight = getIconHeight();
+            final int textWidth = mTextLayout != null ? mTextLayout.getWidth() : 0;
+            final int textHeight = mTextLayout != null ? mTextLayout.getHeight() : 0;
+            final int contentSpacing = mTextLayout != null ? mAppliedContentSpacing : 0;
+
+            // Content is centered as a group along the main axis, and each part is centered on the cross axis
+            if (isHorizontal()) {
+                int x = innerLeft + (innerWidth - iconWidth - contentSpacing - textWidth) / 2;
+                if (mAppliedTextPosition == BadgeTextPosition.LEFT) {
+                    mTextLeft = x;
+                    mIconLeft = x + textWidth + contentSpacing;
+                } else {
+                    mIconLeft = x;
+                    mTextLeft = x + iconWidth + contentSpacing;
+                }
+                mIconTop = innerTop + (innerHeight - iconHeight) / 2;
+                mTextTop = innerTop + (innerHeight - textHeight) / 2;
+            } else {
+                int y = innerTop + (innerHeight - iconHeight - contentSpacing - textHeight) / 2;
+                if (mAppliedTextPosition == BadgeTextPosition.TOP) {
+                    mTextTop = y;
+                    mIconTop = y + textHeight + contentSpacing;
+                } else {
+                    mIconTop = y;
+                    mTextTop = y + iconHeight + contentSpacing;
+                }
+                mIconLeft = innerLeft + (innerWidth - iconWidth) / 2;
+                mTextLeft = innerLeft + (innerWidth - textWidth) / 2;
+            }
+
+            if (mIcon != null) {
+                mIcon.setBounds(mIconLeft, mIconTop, mIconLeft + iconWidth, mIconTop + iconHeight);
+            }
+        }
+
+        @Override
+        protected void onDraw(Canvas canvas) {
+            super.onDraw(canvas);
+
+            if (mIcon != null) {
+                mIcon.draw(canvas);
+            }
+
+            if (mTextLayout != null) {
+                final int saveCount = canvas.save();
+                canvas.translate(mTextLeft, mTextTop);
+                // Cached layouts are shared, so they are drawn with the color of this view's state
+                mTextLayout.getPaint().setColor(mTextPaint.getColor());
+                mTextLayout.draw(canvas);
+                canvas.restoreToCount(saveCount);
+            }
+        }
+
+        @Override
+        protected void drawableStateChanged() {
+            super.drawableStateChanged();
+
+            if (mIcon != null && mIcon.isStateful()) {
+                mIcon.setState(getDrawableState());
+            }
+            updateTextColor();
+        }
+
+        @Override
+        protected boolean verifyDrawable(Drawable who) {
+            return who == mIcon || super.verifyDrawable(who);
+        }
+
+        @Override
+        public void jumpDrawablesToCurrentState() {
+            super.jumpDrawablesToCurrentState();
+
+            if (mIcon != null) {
+                mIcon.jumpToCurrentState();
+            }
+        }
+
+        @Override
+        public void onIconLoaded(@NonNull IconSource iconSource, @Nullable Bitmap bitmap) {
+            mIconRequest = null;
+            if (bitmap != null) {
+                setIconBitmap(bitmap);
+            }
+        }
+
+        private void bindIcon() {
+            cancelIconLoad();
+
+            final IconSource iconSource = mBadge.mIconSource;
+            if (iconSource == null) {
+                clearIconBitmap();
+                setIcon(mBadge.mIcon);
+                return;
+            }
+
+            final Bitmap bitmap = mLayout.getIconBitmap(mBadge, iconSource);
+            if (bitmap != null) {
+                setIconBitmap(bitmap);
+            } else if (iconSource.isRasterized(getContext())) {
+                // Drawables which aren't rasterized keep their states and animations
+                clearIconBitmap();
+                setIcon(mLayout.mRasterizeIcons ? null : iconSource.loadDrawable(getContext()));
+            } else {
+                clearIconBitmap();
+                setIcon(mLayout.newIconPlaceholder());
+                mIconRequest = IconLoader.load(getContext(), iconSource, mLayout.mBadgeIconSize,
+                        mLayout.mIconExecutor, this);
+            }
+        }
+
+        private void setIconBitmap(@NonNull Bitmap bitmap) {
+            if (this == mLayout.mMeasureBadgeView) {
+                // Only the size of the icon matters to measure the badge, it isn't packed into the atlas
+                clearIconBitmap();
+                setIcon(new BitmapDrawable(getResources(), bitmap));
+                return;
+            }
+
+            // Bitmaps are packed into the atlas of the layout, and drawn from there
+            final IconAtlas.Entry atlasEntry = mLayout.mIconAtlas.acquire(bitmap);
+            if (atlasEntry == mAtlasEntry) {
+                atlasEntry.release();
+                return;
+            }
+            clearIconBitmap();
+            mAtlasEntry = atlasEntry;
+            setIcon(atlasEntry.newDrawable());
+        }
+
+        private void clearIconBitmap() {
+            if (mAtlasEntry != null) {
+                mAtlasEntry.release();
+                mAtlasEntry = null;
+            }
+        }
+
+        private void cancelIconLoad() {
+            if (mIconRequest != null) {
+                mIconRequest.cancel();
+                mIconRequest = null;
+            }
+        }
+
+        private void setIcon(@Nullable Drawable icon) {
+            if (icon == mIcon) {
+                return;
+            }
+
+            final int oldWidth = getIconWidth();
+            final int oldHeight = getIconHeight();
+
+            if (mIcon != null) {
+                mIcon.setCallback(null);
+                unscheduleDrawable(mIcon);
+            }
+            mIcon = icon;
+            if (mIcon != null) {
+                mIcon.setCallback(this);
+                if (mIcon.isStateful()) {
+                    mIcon.setState(getDrawableState());
+                }
+            }
+
+            if (oldWidth != getIconWidth() || oldHeight != getIconHeight()) {
+                requestLayout();
+            } else {
+                if (mIcon != null) {
+                    mIcon.setBounds(mIconLeft, mIconTop, mIconLeft + oldWidth, mIconTop + oldHeight);
+                }
+                invalidate();
+            }
+        }
+
+        private void updateTextColor() {
+            final ColorStateList textColors = mLayout != null ? mLayout.mBadgeTextColors : null;
+            if (textColors != null) {
+                final int color = textColors.getColorForState(getDrawableState(), textColors.getDefaultColor());
+                if (mTextPaint.getColor() != color) {
+                    mTextPaint.setColor(color);
+                    invalidate();
+                }
             }
         }
+
+        private void invalidateTextLayout() {
+            mTextLayout = null;
+            mTextLayoutMaxWidth = -1;
+            requestLayout();
+            invalidate();
+        }
+
+        private void buildTextLayout(int maxTextWidth) {
+            if (TextUtils.isEmpty(mText)) {
+                mTextLayout = null;
+                return;
+            }
+
+            if (mTextLayout != null && mTextLayoutMaxWidth == maxTextWidth) {
+                // Layout is still valid
+                return;
+            }
+
+            if (mText instanceof Spanned) {
+                // Styled text can't be keyed by its characters only
+                mTextLayout = TextLayoutCache.build(mText, mTextPaint, maxTextWidth);
+            } else {
+                mTextLayout = TextLayoutCache.obtain(mText.toString(), mTextPaint, maxTextWidth);
+            }
+            mTextLayoutMaxWidth = maxTextWidth;
+        }
+
+        private boolean isHorizontal() {
+            return mAppliedTextPosition == BadgeTextPosition.LEFT || mAppliedTextPosition == BadgeTextPosition.RIGHT;
+        }
+
+        private int getIconWidth() {
+            return mIcon != null ? Math.max(0, mIcon.getIntrinsicWidth()) : 0;
+        }
+
+        private int getIconHeight() {
+            return mIcon != null ? Math.max(0, mIcon.getIntrinsicHeight()) : 0;
+        }
     }
 }
@@ -0,0 +1,198 @@
+/*
+ * Copyright (C) 2016 Dardle Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package au.com.dardle.widget;
+
+import android.graphics.drawable.Drawable;
+import android.support.annotation.DrawableRes;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.text.TextUtils;
+
+/**
+ * An immutable description of a badge, identified by a stable id. Lists of models are submitted to a
+ * {@link BadgeLayout} via {@link BadgeLayout#submitBadges(java.util.List)}, which only updates the badges
+ * whose model has been added, removed, moved or changed. Models can be created on any thread.
+ *
+ * @see Builder
+ */
+public final class BadgeModel {
+    private final long mId;
+    private final CharSequence mText;
+    private final Drawable mIcon;
+    private final int mIconResId;
+    private final IconSource mIconSource;
+    private final boolean mSelected;
+    private final boolean mEnabled;
+    private final Object mTag;
+
+    private BadgeModel(Builder builder) {
+        mId = builder.mId;
+        mText = builder.mText;
+        mIcon = builder.mIcon;
+        mIconResId = builder.mIconResId;
+        mIconSource = builder.mIconSource;
+        mSelected = builder.mSelected;
+        mEnabled = builder.mEnabled;
+        mTag = builder.mTag;
+    }
+
+    /**
+     * Return the stable id of this badge
+     *
+     * @return The badge's id
+     */
+    public long getId() {
+        return mId;
+    }
+
+    @Nullable
+    public CharSequence getText() {
+        return mText;
+    }
+
+    @Nullable
+    public Drawable getIcon() {
+        return mIcon;
+    }
+
+    @DrawableRes
+    public int getIconResId() {
+        return mIconResId;
+    }
+
+    @Nullable
+    public IconSource getIconSource() {
+        return mIconSource;
+    }
+
+    public boolean isSelected() {
+        return mSelected;
+    }
+
+    public boolean isEnabled() {
+        return mEnabled;
+    }
+
+    @Nullable
+    public Object getTag() {
+        return mTag;
+    }
+
+    /**
+     * Whether the given model displays the same content as this one. Icons are compared by identity,
+     * icon sources by key and tags by {@link Object#equals(Object)}.
+     *
+     * @param other Model to compare with
+     * @return True if both models display the same content
+     */
+    public boolean hasSameContent(@NonNull BadgeModel other) {
+        return TextUtils.equals(mText, other.mText)
+                && mIcon == other.mIcon
+                && mIconResId == other.mIconResId
+                && (mIconSource == null ? other.mIconSource == null : mIconSource.equals(other.mIconSource))
+                && mSelected == other.mSelected
+                && mEnabled == other.mEnabled
+                && (mTag == null ? other.mTag == null : mTag.equals(other.mTag));
+    }
+
+    /**
+     * Builder of {@link BadgeModel} instances
+     */
+    public static final class Builder {
+        private final long mId;
+        private CharSequence mText;
+        private Drawable mIcon;
+        private int mIconResId;
+        private IconSource mIconSource;
+        private boolean mSelected = false;
+        private boolean mEnabled = true;
+        private Object mTag;
+
+        /**
+         * @param id Stable id of the badge, unique within a submitted list
+         */
+        public Builder(long id) {
+            mId = id;
+        }
+
+        @NonNull
+        public Builder setText(@Nullable CharSequence text) {
+            mText = text;
+            return this;
+        }
+
+        /**
+         * Set the icon of the badge. Takes precedence over an icon resource.
+         *
+         * @param icon The drawable to use as an icon
+         * @return The current instance for call chaining
+         */
+        @NonNull
+        public Builder setIcon(@Nullable Drawable icon) {
+            mIcon = icon;
+            return this;
+        }
+
+        /**
+         * Set the icon of the badge from a resource, which is only loaded when the model is applied.
+         *
+         * @param iconResId The drawable resource to use as an icon
+         * @return The current instance for call chaining
+         */
+        @NonNull
+        public Builder setIconResource(@DrawableRes int iconResId) {
+            mIconResId = iconResId;
+            return this;
+        }
+
+        /**
+         * Set the icon of the badge from a local image, decoded in the background when the model is
+         * applied. An icon or icon resource takes precedence over it.
+         *
+         * @param iconSource The source of the icon
+         * @return The current instance for call chaining
+         */
+        @NonNull
+        public Builder setIconSource(@Nullable IconSource iconSource) {
+            mIconSource = iconSource;
+            return this;
+        }
+
+        @NonNull
+        public Builder setSelected(boolean selected) {
+            mSelected = selected;
+            return this;
+        }
+
+        @NonNull
+        public Builder setEnabled(boolean enabled) {
+            mEnabled = enabled;
+            return this;
+        }
+
+        @NonNull
+        public Builder setTag(@Nullable Object tag) {
+            mTag = tag;
+            return this;
+        }
+
+        @NonNull
+        public BadgeModel build() {
+            return new BadgeModel(this);
+        }
+    }
+}
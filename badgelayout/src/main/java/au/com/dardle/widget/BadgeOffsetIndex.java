@@ -0,0 +1,238 @@
+/*
+ * Copyright (C) 2016 Dardle Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package au.com.dardle.widget;
+
+import java.util.Arrays;
+
+/**
+ * Index of badge widths and their horizontal offsets in a row, with a fixed spacing between badges.
+ * <p>
+ * <p>Offsets are prefix sums of the widths. They are recomputed lazily, and only from the first
+ * badge whose width has changed since the last query, so changing the width of badge k costs
+ * nothing until an offset at or after k is needed.</p>
+ * <p>
+ * <p>When all badges have the same width, the index can be given that width instead, and offsets are
+ * then computed arithmetically, without prefix sums.</p>
+ */
+final class BadgeOffsetIndex {
+    private int[] mWidths = new int[16];
+    private int[] mStarts = new int[17];
+    private int mCount;
+    private int mSpacing;
+
+    // Width of every badge if they all have the same, -1 otherwise
+    private int mUniformWidth = -1;
+
+    // Start offsets are valid for badges [0, mValidCount)
+    private int mValidCount;
+
+    int size() {
+        return mCount;
+    }
+
+    void setSpacing(int spacing) {
+        if (mSpacing != spacing) {
+            mSpacing = spacing;
+            mValidCount = 0;
+        }
+    }
+
+    /**
+     * Set the width shared by all badges, which then takes precedence over their individual widths
+     *
+     * @param uniformWidth The width of every badge, or -1 to use the individual widths again
+     */
+    void setUniformWidth(int uniformWidth) {
+        if (mUniformWidth != uniformWidth) {
+            mUniformWidth = uniformWidth;
+            mValidCount = 0;
+        }
+    }
+
+    void clear() {
+        mCount = 0;
+        mValidCount = 0;
+    }
+
+    void insert(int index, int width) {
+        if (index < 0 || index > mCount) {
+            throw new IndexOutOfBoundsException("Invalid index " + index + ", size is " + mCount);
+        }
+
+        ensureCapacity(mCount + 1);
+        System.arraycopy(mWidths, index, mWidths, index + 1, mCount - index);
+        mWidths[index] = width;
+        mCount++;
+        mValidCount = Math.min(mValidCount, index);
+    }
+
+    void remove(int index) {
+        checkIndex(index);
+
+        System.arraycopy(mWidths, index + 1, mWidths, index, mCount - index - 1);
+        mCount--;
+        mValidCount = Math.min(mValidCount, index);
+    }
+
+    void setWidth(int index, int width) {
+        checkIndex(index);
+
+        if (mWidths[index] != width) {
+            mWidths[index] = width;
+            mValidCount = Math.min(mValidCount, index + 1);
+        }
+    }
+
+    int getWidth(int index) {
+        checkIndex(index);
+
+        return mUniformWidth >= 0 ? mUniformWidth : mWidths[index];
+    }
+
+    /**
+     * Get the left offset of a badge
+     *
+     * @param index Index of the badge
+     * @return Left offset of the badge, relative to the start of the row
+     */
+    int getStart(int index) {
+        checkIndex(index);
+
+        if (mUniformWidth >= 0) {
+            return index * (mUniformWidth + mSpacing);
+        }
+        ensureStarts(index + 1);
+        return mStarts[index];
+    }
+
+    /**
+     * Get the right offset of a badge
+     *
+     * @param index Index of the badge
+     * @return Right offset of the badge, relative to the start of the row
+     */
+    int getEnd(int index) {
+        return getStart(index) + getWidth(index);
+    }
+
+    /**
+     * Get the width of the whole row, spacing included
+     *
+     * @return Width of the row
+     */
+    int getTotalWidth() {
+        return mCount > 0 ? getEnd(mCount - 1) : 0;
+    }
+
+    /**
+     * Find the badge at the given offset in O(log n). Offsets in the spacing after a badge belong to that badge.
+     *
+     * @param offset Offset relative to the start of the row
+     * @return Index of the badge, clamped to [0, size - 1], or -1 if the index is empty
+     */
+    int indexAt(int offset) {
+        if (mCount == 0) {
+            return -1;
+        }
+
+        if (mUniformWidth >= 0) {
+            final int stride = mUniformWidth + mSpacing;
+            if (offset < 0) {
+                return 0;
+            }
+            return stride > 0 ? Math.min(offset / stride, mCount - 1) : mCount - 1;
+        }
+
+        ensureStarts(mCount);
+
+        // Last badge whose start is at or before offset
+        int low = 0;
+        int high = mCount - 1;
+        while (low < high) {
+            final int mid = (low + high + 1) >>> 1;
+            if (mStarts[mid] <= offset) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Find the last of the first badges which ends at or before the given offset, in O(log n)
+     *
+     * @param offset Offset relative to the start of the row
+     * @param count  Number of badges to search, from the first one
+     * @return Index of the badge, or -1 if even the first badge ends after offset
+     */
+    int lastIndexEndingBefore(int offset, int count) {
+        if (count < 0 || count > mCount) {
+            throw new IndexOutOfBoundsException("Invalid count " + count + ", size is " + mCount);
+        }
+
+        if (mUniformWidth >= 0) {
+            final int stride = mUniformWidth + mSpacing;
+            if (count == 0 || offset < mUniformWidth) {
+                return -1;
+            }
+            return stride > 0 ? Math.min((offset - mUniformWidth) / stride, count - 1) : count - 1;
+        }
+
+        ensureStarts(count);
+
+        // Ends increase with the index, as widths are never negative
+        int low = -1;
+        int high = count - 1;
+        while (low < high) {
+            final int mid = (low + high + 1) >>> 1;
+            if (mStarts[mid] + mWidths[mid] <= offset) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return low;
+    }
+
+    private void ensureStarts(int count) {
+        if (mValidCount >= count) {
+            return;
+        }
+
+        int start = mValidCount == 0 ? 0 : mStarts[mValidCount - 1] + mWidths[mValidCount - 1] + mSpacing;
+        for (int i = mValidCount; i < count; i++) {
+            mStarts[i] = start;
+            start += mWidths[i] + mSpacing;
+        }
+        mValidCount = count;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (mWidths.length < capacity) {
+            final int newCapacity = Math.max(capacity, mWidths.length * 2);
+            mWidths = Arrays.copyOf(mWidths, newCapacity);
+            mStarts = Arrays.copyOf(mStarts, newCapacity + 1);
+        }
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= mCount) {
+            throw new IndexOutOfBoundsException("Invalid index " + index + ", size is " + mCount);
+        }
+    }
+}
@@ -0,0 +1,465 @@
+/*
+ * Copyright (C) 2016 Dardle Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package au.com.dardle.widget;
+
+import android.content.Context;
+import android.content.res.ColorStateList;
+import android.content.res.Resources;
+import android.content.res.TypedArray;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.graphics.drawable.BitmapDrawable;
+import android.graphics.drawable.Drawable;
+import android.os.Build;
+import android.support.annotation.DrawableRes;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.v4.content.ContextCompat;
+import android.text.StaticLayout;
+import android.text.TextPaint;
+import android.text.TextUtils;
+import android.util.TypedValue;
+import android.view.ContextThemeWrapper;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Renders a row of badges into a bitmap without creating any view, with the same visuals as a
+ * {@link BadgeLayout} of the same style, e.g. for notifications and app widgets.
+ * <p>
+ * <p>Rendering may happen on any thread. Icon sources are decoded synchronously, so renders using them
+ * are best done off the main thread. Renders are serialized, a renderer can be shared between threads.</p>
+ *
+ * @see Builder
+ */
+public final class BadgeRenderer {
+    private static final int[] STATE_NONE = new int[0];
+    private static final int[] STATE_SELECTED = new int[]{android.R.attr.state_selected};
+    private static final int[] STATE_ENABLED = new int[]{android.R.attr.state_enabled};
+    private static final int[] STATE_SELECTED_ENABLED = new int[]{android.R.attr.state_selected,
+            android.R.attr.state_enabled};
+
+    private final Context mContext;
+    private final BadgeLayout.BadgeTextPosition mBadgeTextPosition;
+    private final ColorStateList mBadgeTextColors;
+    private final int mSpacing;
+    private final int mBadgeContentSpacing;
+    private final int mBadgeIconSize;
+    private final boolean mRasterizeIcons;
+
+    // Owned by the renderer, so its state and bounds can be changed for every badge
+    private final Drawable mBackground;
+    private final Rect mPadding = new Rect();
+    private final TextPaint mTextPaint = new TextPaint(Paint.ANTI_ALIAS_FLAG);
+    private final Canvas mCanvas = new Canvas();
+    private final Rect mIconBounds = new Rect();
+
+    // Results of measuring each badge, reused to draw it and kept across renders
+    private Drawable[] mIcons = new Drawable[0];
+    private StaticLayout[] mTextLayouts = new StaticLayout[0];
+    private int[] mIconWidths = new int[0];
+    private int[] mIconHeights = new int[0];
+    private int[] mWidths = new int[0];
+    private int[] mHeights = new int[0];
+
+    private BadgeRenderer(Builder builder) {
+        mContext = builder.mContext;
+        mBadgeTextPosition = builder.mBadgeTextPosition;
+        mSpacing = builder.mSpacing;
+        mBadgeContentSpacing = builder.mBadgeContentSpacing;
+        mBadgeIconSize = builder.mBadgeIconSize;
+        mRasterizeIcons = builder.mRasterizeIcons;
+
+        if (builder.mBadgeTextColors != null) {
+            mBadgeTextColors = builder.mBadgeTextColors;
+        } else {
+            final TypedArray typedArray = mContext.obtainStyledAttributes(new int[]{android.R.attr.textColorPrimary});
+            final ColorStateList textColors = typedArray.getColorStateList(0);
+            typedArray.recycle();
+            mBadgeTextColors = textColors != null ? textColors : ColorStateList.valueOf(Color.BLACK);
+        }
+
+        final Drawable background = builder.mBadgeBackgroundResId != 0
+                ? ContextCompat.getDrawable(mContext, builder.mBadgeBackgroundResId) : null;
+        mBackground = background != null ? background.mutate() : null;
+        if (mBackground != null) {
+            mBackground.getPadding(mPadding);
+        }
+
+        mTextPaint.setTextSize(TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_SP, builder.mBadgeTextSize,
+                mContext.getResources().getDisplayMetrics()));
+    }
+
+    /**
+     * Render badges into a new bitmap
+     *
+     * @param models The badges to render, in order
+     * @return The rendered badges
+     */
+    @NonNull
+    public Bitmap render(@NonNull List<BadgeModel> models) {
+        return render(models, null);
+    }
+
+    /**
+     * Render badges, into the given bitmap if possible. The bitmap is reused if it is mutable, in the
+     * {@link Bitmap.Config#ARGB_8888} config and either has the size of the rendered badges or, from
+     * KitKat on, is large enough to be reconfigured to it. Otherwise a new bitmap is created.
+     *
+     * @param models      The badges to render, in order
+     * @param reuseBitmap Bitmap of a previous render to draw into, or null
+     * @return The rendered badges, either the reused bitmap or a new one
+     */
+    @NonNull
+    public synchronized Bitmap render(@NonNull List<BadgeModel> models, @Nullable Bitmap reuseBitmap) {
+        final int count = models.size();
+        ensureCapacity(count);
+
+        int width = 0;
+        int height = 0;
+        for (int i = 0; i < count; i++) {
+            measureBadge(i, models.get(i));
+            width += mWidths[i] + (i > 0 ? mSpacing : 0);
+            height = Math.max(height, mHeights[i]);
+        }
+
+        final Bitmap bitmap = obtainBitmap(reuseBitmap, Math.max(1, width), Math.max(1, height));
+        mCanvas.setBitmap(bitmap);
+        int left = 0;
+        for (int i = 0; i < count; i++) {
+            // Badges are centered vertically in the row
+            drawBadge(i, models.get(i), left, (height - mHeights[i]) / 2);
+            left += mWidths[i] + mSpacing;
+        }
+        mCanvas.setBitmap(null);
+
+        // Don't keep icons and text alive until the next render
+        Arrays.fill(mIcons, 0, count, null);
+        Arrays.fill(mTextLayouts, 0, count, null);
+        return bitmap;
+    }
+
+    private void measureBadge(int index, BadgeModel model) {
+        loadIcon(index, model);
+
+        final CharSequence text = model.getText();
+        final StaticLayout textLayout = TextUtils.isEmpty(text) ? null
+                : TextLayoutCache.build(text, mTextPaint, Integer.MAX_VALUE);
+        mTextLayouts[index] = textLayout;
+
+        final int iconWidth = mIconWidths[index];
+        final int iconHeight = mIconHeights[index];
+        final int textWidth = textLayout != null ? textLayout.getWidth() : 0;
+        final int textHeight = textLayout != null ? textLayout.getHeight() : 0;
+        final int contentSpacing = textLayout != null ? mBadgeContentSpacing : 0;
+
+        int contentWidth;
+        int contentHeight;
+        if (isHorizontal()) {
+            contentWidth = iconWidth + contentSpacing + textWidth;
+            contentHeight = Math.max(iconHeight, textHeight);
+        } else {
+            contentWidth = Math.max(iconWidth, textWidth);
+            contentHeight = iconHeight + contentSpacing + textHeight;
+        }
+
+        final int minimumWidth = mBackground != null ? mBackground.getMinimumWidth() : 0;
+        final int minimumHeight = mBackground != null ? mBackground.getMinimumHeight() : 0;
+        mWidths[index] = Math.max(contentWidth + mPadding.left + mPadding.right, minimumWidth);
+        mHeights[index] = Math.max(contentHeight + mPadding.top + mPadding.bottom, minimumHeight);
+    }
+
+    /**
+     * Load the icon of a badge with the precedence of {@link BadgeLayout}: icon, icon resource, icon source
+     */
+    private void loadIcon(int index, BadgeModel model) {
+        final Resources resources = mContext.getResources();
+        Drawable icon = null;
+        boolean fitToSlot = false;
+        if (model.getIcon() != null) {
+            // The drawable may be displayed by views as well, draw a copy of it
+            final Drawable.ConstantState constantState = model.getIcon().getConstantState();
+            icon = constantState != null ? constantState.newDrawable(resources).mutate() : model.getIcon();
+        } else if (model.getIconResId() != 0) {
+            // XML drawables are sized like the ones a badge layout rasterizes, if it does
+            icon = ContextCompat.getDrawable(mContext, model.getIconResId());
+            fitToSlot = mRasterizeIcons && IconSource.fromResource(model.getIconResId()).isRasterized(mContext);
+        } else if (model.getIconSource() != null) {
+            final IconSource iconSource = model.getIconSource();
+            if (iconSource.isRasterized(mContext)) {
+                icon = iconSource.loadDrawable(mContext);
+                fitToSlot = mRasterizeIcons;
+            } else {
+                final Bitmap bitmap = IconLoader.loadSync(mContext, iconSource, mBadgeIconSize);
+                icon = bitmap != null ? new BitmapDrawable(resources, bitmap) : null;
+            }
+        }
+
+        int iconWidth = icon != null ? Math.max(0, icon.getIntrinsicWidth()) : 0;
+        int iconHeight = icon != null ? Math.max(0, icon.getIntrinsicHeight()) : 0;
+        if (fitToSlot && icon != null) {
+            IconLoader.getRasterizedBounds(icon, mBadgeIconSize, mIconBounds);
+            iconWidth = mIconBounds.width();
+            iconHeight = mIconBounds.height();
+        }
+
+        mIcons[index] = icon;
+        mIconWidths[index] = iconWidth;
+        mIconHeights[index] = iconHeight;
+    }
+
+    private void drawBadge(int index, BadgeModel model, int left, int top) {
+        final int width = mWidths[index];
+        final int height = mHeights[index];
+        final int[] state = getState(model);
+
+        if (mBackground != null) {
+            mBackground.setState(state);
+            mBackground.setBounds(left, top, left + width, top + height);
+            mBackground.draw(mCanvas);
+        }
+
+        final Drawable icon = mIcons[index];
+        final StaticLayout textLayout = mTextLayouts[index];
+        final int iconWidth = mIconWidths[index];
+        final int iconHeight = mIconHeights[index];
+        final int textWidth = textLayout != null ? textLayout.getWidth() : 0;
+        final int textHeight = textLayout != null ? textLayout.getHeight() : 0;
+        final int contentSpacing = textLayout != null ? mBadgeContentSpacing : 0;
+
+        final int innerLeft = left + mPadding.left;
+        final int innerTop = top + mPadding.top;
+        final int innerWidth = width - mPadding.left - mPadding.right;
+        final int innerHeight = height - mPadding.top - mPadding.bottom;
+
+        // Content is centered as a group along the main axis, and each part is centered on the cross axis
+        int iconLeft;
+        int iconTop;
+        int textLeft;
+        int textTop;
+        if (isHorizontal()) {
+            final int x = innerLeft + (innerWidth - iconWidth - contentSpacing - textWidth) / 2;
+            if (mBadgeTextPosition == BadgeLayout.BadgeTextPosition.LEFT) {
+                textLeft = x;
+                iconLeft = x + textWidth + contentSpacing;
+            } else {
+                iconLeft = x;
+                textLeft = x + iconWidth + contentSpacing;
+            }
+            iconTop = innerTop + (innerHeight - iconHeight) / 2;
+            textTop = innerTop + (innerHeight - textHeight) / 2;
+        } else {
+            final int y = innerTop + (innerHeight - iconHeight - contentSpacing - textHeight) / 2;
+            if (mBadgeTextPosition == BadgeLayout.BadgeTextPosition.TOP) {
+                textTop = y;
+                iconTop = y + textHeight + contentSpacing;
+            } else {
+                iconTop = y;
+                textTop = y + iconHeight + contentSpacing;
+            }
+            iconLeft = innerLeft + (innerWidth - iconWidth) / 2;
+            textLeft = innerLeft + (innerWidth - textWidth) / 2;
+        }
+
+        if (icon != null) {
+            icon.setState(state);
+            icon.setBounds(iconLeft, iconTop, iconLeft + iconWidth, iconTop + iconHeight);
+            icon.draw(mCanvas);
+        }
+
+        if (textLayout != null) {
+            mTextPaint.setColor(mBadgeTextColors.getColorForState(state, mBadgeTextColors.getDefaultColor()));
+            final int saveCount = mCanvas.save();
+            mCanvas.translate(textLeft, textTop);
+            textLayout.draw(mCanvas);
+            mCanvas.restoreToCount(saveCount);
+        }
+    }
+
+    private Bitmap obtainBitmap(Bitmap reuseBitmap, int width, int height) {
+        if (reuseBitmap != null && reuseBitmap.isMutable() && !reuseBitmap.isRecycled()
+                && reuseBitmap.getConfig() == Bitmap.Config.ARGB_8888) {
+            if (reuseBitmap.getWidth() == width && reuseBitmap.getHeight() == height) {
+                reuseBitmap.eraseColor(Color.TRANSPARENT);
+                return reuseBitmap;
+            }
+
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT
+                    && reuseBitmap.getAllocationByteCount() >= width * height * 4) {
+                reuseBitmap.reconfigure(width, height, Bitmap.Config.ARGB_8888);
+                reuseBitmap.eraseColor(Color.TRANSPARENT);
+                return reuseBitmap;
+            }
+        }
+        return Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+    }
+
+    private static int[] getState(BadgeModel model) {
+        if (model.isSelected()) {
+            return model.isEnabled() ? STATE_SELECTED_ENABLED : STATE_SELECTED;
+        }
+        return model.isEnabled() ? STATE_ENABLED : STATE_NONE;
+    }
+
+    private boolean isHorizontal() {
+        return mBadgeTextPosition == BadgeLayout.BadgeTextPosition.LEFT
+                || mBadgeTextPosition == BadgeLayout.BadgeTextPosition.RIGHT;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (mWidths.length < capacity) {
+            final int newCapacity = Math.max(capacity, mWidths.length * 2);
+            mIcons = Arrays.copyOf(mIcons, newCapacity);
+            mTextLayouts = Arrays.copyOf(mTextLayouts, newCapacity);
+            mIconWidths = Arrays.copyOf(mIconWidths, newCapacity);
+            mIconHeights = Arrays.copyOf(mIconHeights, newCapacity);
+            mWidths = Arrays.copyOf(mWidths, newCapacity);
+            mHeights = Arrays.copyOf(mHeights, newCapacity);
+        }
+    }
+
+    /**
+     * Builder of {@link BadgeRenderer} instances. Defaults are those of {@link BadgeLayout}.
+     */
+    public static final class Builder {
+        private final Context mContext;
+        private int mBadgeBackgroundResId;
+        private BadgeLayout.BadgeTextPosition mBadgeTextPosition = BadgeLayout.BadgeTextPosition.BOTTOM;
+        private ColorStateList mBadgeTextColors;
+        private int mBadgeTextSize = 14;
+        private int mSpacing = 8;
+        private int mBadgeContentSpacing = 0;
+        private int mBadgeIconSize;
+        private boolean mRasterizeIcons = false;
+
+        /**
+         * @param context Context to load resources with, the application context is kept
+         */
+        public Builder(@NonNull Context context) {
+            mContext = context.getApplicationContext() != null ? context.getApplicationContext() : context;
+            mBadgeIconSize = Math.round(32 * context.getResources().getDisplayMetrics().density);
+        }
+
+        /**
+         * Create a builder with the style of a badge layout
+         *
+         * @param badgeLayout The badge layout to take the style of
+         */
+        public Builder(@NonNull BadgeLayout badgeLayout) {
+            mContext = newThemedApplicationContext(badgeLayout.getContext());
+            mBadgeBackgroundResId = badgeLayout.getBadgeBackgroundResId();
+            mBadgeTextPosition = badgeLayout.getBadgeTextPosition();
+            mBadgeTextColors = badgeLayout.getBadgeTextColor();
+            mBadgeTextSize = badgeLayout.getBadgeTextSize();
+            mSpacing = badgeLayout.getSpacing();
+            mBadgeContentSpacing = badgeLayout.getBadgeContentSpacing();
+            mBadgeIconSize = badgeLayout.getBadgeIconSize();
+            mRasterizeIcons = badgeLayout.isRasterizeIcons();
+        }
+
+        /**
+         * Create a context resolving resources with the theme of the given one, usually an activity, without
+         * keeping it alive
+         */
+        static Context newThemedApplicationContext(@NonNull Context context) {
+            final Context applicationContext = context.getApplicationContext();
+            if (applicationContext == null || applicationContext == context) {
+                return context;
+            }
+
+            final ContextThemeWrapper themedContext = new ContextThemeWrapper(applicationContext, 0);
+            themedContext.getTheme().setTo(context.getTheme());
+            return themedContext;
+        }
+
+        @NonNull
+        public Builder setBadgeBackground(@DrawableRes int badgeBackgroundResId) {
+            mBadgeBackgroundResId = badgeBackgroundResId;
+            return this;
+        }
+
+        @NonNull
+        public Builder setBadgeTextPosition(@NonNull BadgeLayout.BadgeTextPosition badgeTextPosition) {
+            mBadgeTextPosition = badgeTextPosition;
+            return this;
+        }
+
+        @NonNull
+        public Builder setBadgeTextColor(@Nullable ColorStateList badgeTextColor) {
+            mBadgeTextColors = badgeTextColor;
+            return this;
+        }
+
+        /**
+         * Set the text size, in the unit of {@link BadgeLayout#setBadgeTextSize(int)}
+         *
+         * @param badgeTextSize The text size
+         * @return The current instance for call chaining
+         */
+        @NonNull
+        public Builder setBadgeTextSize(int badgeTextSize) {
+            mBadgeTextSize = badgeTextSize;
+            return this;
+        }
+
+        @NonNull
+        public Builder setSpacing(int spacing) {
+            mSpacing = spacing;
+            return this;
+        }
+
+        @NonNull
+        public Builder setBadgeContentSpacing(int badgeContentSpacing) {
+            mBadgeContentSpacing = badgeContentSpacing;
+            return this;
+        }
+
+        /**
+         * Set the size of the square slot icon sources are decoded to fit in, in pixels
+         *
+         * @param badgeIconSize The icon size
+         * @return The current instance for call chaining
+         */
+        @NonNull
+        public Builder setBadgeIconSize(int badgeIconSize) {
+            mBadgeIconSize = badgeIconSize;
+            return this;
+        }
+
+        /**
+         * Set whether XML drawable icons are sized like the icons rasterized by a badge layout, see
+         * {@link BadgeLayout#setRasterizeIcons(boolean)}
+         *
+         * @param rasterizeIcons True to fit XML drawable icons to the icon slot
+         * @return The current instance for call chaining
+         */
+        @NonNull
+        public Builder setRasterizeIcons(boolean rasterizeIcons) {
+            mRasterizeIcons = rasterizeIcons;
+            return this;
+        }
+
+        @NonNull
+        public BadgeRenderer build() {
+            return new BadgeRenderer(this);
+        }
+    }
+}
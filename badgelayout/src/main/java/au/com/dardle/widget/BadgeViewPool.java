@@ -0,0 +1,216 @@
+/*
+ * Copyright (C) 2016 Dardle Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package au.com.dardle.widget;
+
+import android.content.Context;
+import android.view.View;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+/**
+ * A pool of recycled badge views. Every {@link BadgeLayout} owns one by default, but a single pool can
+ * be shared by several layouts, for example the layouts in the rows of a list, via
+ * {@link BadgeLayout#setBadgeViewPool(BadgeViewPool)}. Views released by one layout are then reused by
+ * the others instead of being created again.
+ * <p>
+ * <p>Views hold on to the context they were created with, and are only reused by layouts using the same
+ * context. Views of another context, e.g. of a previous activity, are dropped as soon as a view of the new
+ * context is released or requested, so a pool should only be shared by layouts using the same context.
+ * All pools are cleared when memory runs low. Pools are not thread safe and must be used on the main
+ * thread.</p>
+ */
+public class BadgeViewPool {
+    private static final int DEFAULT_CAPACITY = 12;
+
+    // Every pool which hasn't been garbage collected, cleared when memory runs low
+    private static final Set<BadgeViewPool> sPools =
+            Collections.newSetFromMap(new WeakHashMap<BadgeViewPool, Boolean>());
+
+    // One pool per render mode, as views of different render modes can't replace each other
+    private final CountingPool<View>[] mPools;
+    // Context of the views in each pool, null once a pool is empty
+    private final Context[] mContexts;
+    private int mCapacity;
+
+    /**
+     * Create a pool keeping up to 12 views of each render mode
+     */
+    public BadgeViewPool() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Create a pool
+     *
+     * @param capacity Maximum number of views kept for each render mode
+     */
+    @SuppressWarnings("unchecked")
+    public BadgeViewPool(int capacity) {
+        mCapacity = capacity;
+        mPools = new CountingPool[BadgeLayout.BadgeRenderMode.values().length];
+        mContexts = new Context[mPools.length];
+        for (int i = 0; i < mPools.length; i++) {
+            mPools[i] = new CountingPool<>(capacity);
+        }
+
+        synchronized (sPools) {
+            sPools.add(this);
+        }
+    }
+
+    /**
+     * Get the maximum number of views kept for each render mode
+     *
+     * @return Capacity of the pool
+     */
+    public int getCapacity() {
+        return mCapacity;
+    }
+
+    /**
+     * Set the maximum number of views kept for each render mode. Views which no longer fit are dropped.
+     *
+     * @param capacity Capacity of the pool
+     */
+    public void setCapacity(int capacity) {
+        mCapacity = capacity;
+        for (CountingPool<View> pool : mPools) {
+            pool.setMaxPoolSize(capacity);
+        }
+    }
+
+    /**
+     * Drop all pooled views
+     */
+    public void clear() {
+        for (int i = 0; i < mPools.length; i++) {
+            mPools[i].clear();
+            mContexts[i] = null;
+        }
+    }
+
+    /**
+     * Get the number of pooled views, of all render modes
+     *
+     * @return Number of pooled views
+     */
+    public int getSize() {
+        int size = 0;
+        for (CountingPool<View> pool : mPools) {
+            size += pool.size();
+        }
+        return size;
+    }
+
+    /**
+     * Get the number of views taken from the pool
+     *
+     * @return Number of reused views
+     */
+    public int getHitCount() {
+        int hitCount = 0;
+        for (CountingPool<View> pool : mPools) {
+            hitCount += pool.getHitCount();
+        }
+        return hitCount;
+    }
+
+    /**
+     * Get the number of views created because the pool was empty
+     *
+     * @return Number of created views
+     */
+    public int getMissCount() {
+        int missCount = 0;
+        for (CountingPool<View> pool : mPools) {
+            missCount += pool.getMissCount();
+        }
+        return missCount;
+    }
+
+    int getSize(BadgeLayout.BadgeRenderMode renderMode) {
+        return mPools[renderMode.ordinal()].size();
+    }
+
+    /**
+     * Take a view from the pool
+     *
+     * @param renderMode Render mode of the view
+     * @param context    Context the view must have been created with
+     * @return Pooled view, or null if there is none of the render mode and context
+     */
+    View acquire(BadgeLayout.BadgeRenderMode renderMode, Context context) {
+        final int mode = renderMode.ordinal();
+        final CountingPool<View> pool = mPools[mode];
+        if (mContexts[mode] != context) {
+            // Views of another context can't be reused, and must not keep it alive
+            pool.clear();
+        }
+
+        final View view = pool.acquire();
+        if (pool.size() == 0) {
+            mContexts[mode] = null;
+        }
+        return view;
+    }
+
+    /**
+     * Put a view into the pool
+     *
+     * @param renderMode Render mode of the view
+     * @param view       The view
+     * @return True if the view has been pooled, false if the pool is full
+     */
+    boolean release(BadgeLayout.BadgeRenderMode renderMode, View view) {
+        final int mode = renderMode.ordinal();
+        final CountingPool<View> pool = mPools[mode];
+        if (mContexts[mode] != view.getContext()) {
+            pool.clear();
+            mContexts[mode] = view.getContext();
+        }
+        return pool.release(view);
+    }
+
+    /**
+     * Drop pooled views until at most the given number of views of each render mode are left
+     *
+     * @param size Number of views of each render mode to keep
+     */
+    void trimToSize(int size) {
+        for (int i = 0; i < mPools.length; i++) {
+            mPools[i].trimToSize(size);
+            if (mPools[i].size() == 0) {
+                mContexts[i] = null;
+            }
+        }
+    }
+
+    /**
+     * Drop the pooled views of every pool
+     */
+    static void clearAll() {
+        final BadgeViewPool[] pools;
+        synchronized (sPools) {
+            pools = sPools.toArray(new BadgeViewPool[sPools.size()]);
+        }
+        for (BadgeViewPool pool : pools) {
+            pool.clear();
+        }
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright (C) 2016 Dardle Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package au.com.dardle.widget;
+
+import android.support.v4.util.Pools;
+
+/**
+ * Synchronized object pool which can be cleared, and counts how often an instance could be reused.
+ *
+ * @param <T> The pooled type
+ */
+final class CountingPool<T> implements Pools.Pool<T> {
+    private Object[] mPool;
+    private int mSize;
+    private int mHitCount;
+    private int mMissCount;
+
+    CountingPool(int maxPoolSize) {
+        if (maxPoolSize <= 0) {
+            throw new IllegalArgumentException("The max pool size must be > 0");
+        }
+        mPool = new Object[maxPoolSize];
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public synchronized T acquire() {
+        if (mSize > 0) {
+            mHitCount++;
+            final int lastPooledIndex = mSize - 1;
+            final T instance = (T) mPool[lastPooledIndex];
+            mPool[lastPooledIndex] = null;
+            mSize--;
+            return instance;
+        }
+
+        mMissCount++;
+        return null;
+    }
+
+    @Override
+    public synchronized boolean release(T instance) {
+        for (int i = 0; i < mSize; i++) {
+            if (mPool[i] == instance) {
+                throw new IllegalStateException("Already in the pool!");
+            }
+        }
+
+        if (mSize < mPool.length) {
+            mPool[mSize] = instance;
+            mSize++;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Change the maximum number of pooled instances, dropping the instances which no longer fit
+     *
+     * @param maxPoolSize Maximum number of pooled instances
+     */
+    synchronized void setMaxPoolSize(int maxPoolSize) {
+        if (maxPoolSize <= 0) {
+            throw new IllegalArgumentException("The max pool size must be > 0");
+        }
+
+        final Object[] pool = new Object[maxPoolSize];
+        mSize = Math.min(mSize, maxPoolSize);
+        System.arraycopy(mPool, 0, pool, 0, mSize);
+        mPool = pool;
+    }
+
+    /**
+     * Drop pooled instances until at most the given number are left
+     *
+     * @param size Number of pooled instances to keep
+     */
+    synchronized void trimToSize(int size) {
+        for (int i = Math.max(size, 0); i < mSize; i++) {
+            mPool[i] = null;
+        }
+        mSize = Math.min(mSize, Math.max(size, 0));
+    }
+
+    /**
+     * Drop all pooled instances
+     */
+    synchronized void clear() {
+        for (int i = 0; i < mSize; i++) {
+            mPool[i] = null;
+        }
+        mSize = 0;
+    }
+
+    synchronized int size() {
+        return mSize;
+    }
+
+    synchronized int getHitCount() {
+        return mHitCount;
+    }
+
+    synchronized int getMissCount() {
+        return mMissCount;
+    }
+}
@@ -0,0 +1,331 @@
+/*
+ * Copyright (C) 2016 Dardle Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package au.com.dardle.widget;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.ColorFilter;
+import android.graphics.Paint;
+import android.graphics.PixelFormat;
+import android.graphics.PorterDuff;
+import android.graphics.Rect;
+import android.graphics.drawable.Drawable;
+import android.support.annotation.MainThread;
+import android.support.annotation.NonNull;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.WeakHashMap;
+
+/**
+ * Packs the distinct icon bitmaps of a layout into a single atlas bitmap, so that badges draw their icons
+ * as sub-rectangles of one texture. Icons are placed on shelves, and are reference counted: the slot of an
+ * icon no badge displays anymore is reused by the next icon fitting in it.
+ * <p>
+ * <p>The atlas only grows by appending rows, which keeps the position of the icons already packed. It is
+ * repacked from scratch when an icon is wider than the atlas, or when most of it is unused. Both replace the
+ * atlas bitmap, drawers are notified then to draw again.</p>
+ * <p>
+ * <p>Packed icons are copied, the atlas doesn't keep their bitmaps alive: they stay in the icon cache only
+ * as long as it sees fit, and are found again by identity while they do.</p>
+ */
+@MainThread
+final class IconAtlas {
+    private static final int MIN_WIDTH = 256;
+
+    // Packed entries, and the entries of the icon bitmaps still alive
+    private final HashSet<Entry> mEntries = new HashSet<>();
+    private final WeakHashMap<Bitmap, Entry> mEntriesByIcon = new WeakHashMap<>();
+    private final ArrayList<Shelf> mShelves = new ArrayList<>();
+    private final Runnable mOnAtlasChanged;
+
+    private Bitmap mBitmap;
+    private Canvas mCanvas;
+    private int mWidth;
+    private int mUsedHeight;
+    private int mUsedArea;
+
+    /**
+     * @param onAtlasChanged Invoked when the atlas bitmap has been replaced, or icons moved within it
+     */
+    IconAtlas(@NonNull Runnable onAtlasChanged) {
+        mOnAtlasChanged = onAtlasChanged;
+    }
+
+    /**
+     * Get the entry of an icon, packing it into the atlas unless it is there already. Each acquired entry
+     * must be released once the icon isn't displayed anymore.
+     *
+     * @param icon The icon bitmap
+     * @return The entry of the icon in the atlas
+     */
+    @NonNull
+    Entry acquire(@NonNull Bitmap icon) {
+        Entry entry = mEntriesByIcon.get(icon);
+        if (entry == null) {
+            entry = new Entry(this, icon);
+            mEntries.add(entry);
+            mEntriesByIcon.put(icon, entry);
+            mUsedArea += entry.mWidth * entry.mHeight;
+
+            if (entry.mWidth > mWidth) {
+                // Doesn't fit on any shelf, lay everything out again on wider shelves
+                repack(Math.max(entry.mWidth, Math.max(MIN_WIDTH, mWidth * 2)), entry, icon);
+            } else {
+                place(entry, icon, null);
+            }
+        }
+
+        entry.mRefCount++;
+        return entry;
+    }
+
+    void release(@NonNull Entry entry) {
+        if (--entry.mRefCount > 0) {
+            return;
+        }
+
+        mEntries.remove(entry);
+        final Bitmap icon = entry.mIcon.get();
+        if (icon != null && mEntriesByIcon.get(icon) == entry) {
+            mEntriesByIcon.remove(icon);
+        }
+        mUsedArea -= entry.mWidth * entry.mHeight;
+        entry.mShelf.mFreeSlots.add(entry.mSlot);
+
+        // Compact once at most a quarter of the atlas is used
+        if (mBitmap != null && mUsedArea * 4 < mWidth * mBitmap.getHeight() && mBitmap.getHeight() > mWidth) {
+            repack(mWidth, null, null);
+        }
+    }
+
+    /**
+     * Get the number of bytes used by the atlas bitmap
+     *
+     * @return Size of the atlas in bytes
+     */
+    int getByteCount() {
+        return mBitmap != null ? mBitmap.getByteCount() : 0;
+    }
+
+    /**
+     * Find room for an entry and draw it there
+     *
+     * @param source       Bitmap to copy the icon from
+     * @param sourceBounds Bounds of the icon in the source, or null for the whole source
+     */
+    private void place(Entry entry, Bitmap source, Rect sourceBounds) {
+        final int width = entry.mWidth;
+        final int height = entry.mHeight;
+
+        // Reuse the slot of a released icon, else append to the lowest shelf with room, else add a shelf
+        Shelf bestShelf = null;
+        for (Shelf shelf : mShelves) {
+            if (shelf.mHeight < height) {
+                continue;
+            }
+
+            for (int i = 0; i < shelf.mFreeSlots.size(); i++) {
+                final Rect slot = shelf.mFreeSlots.get(i);
+                if (slot.width() >= width) {
+                    shelf.mFreeSlots.remove(i);
+                    store(entry, shelf, slot, true, source, sourceBounds);
+                    return;
+                }
+            }
+
+            if (mWidth - shelf.mNextX >= width && (bestShelf == null || shelf.mHeight < bestShelf.mHeight)) {
+                bestShelf = shelf;
+            }
+        }
+
+        if (bestShelf == null) {
+            ensureHeight(mUsedHeight + height);
+            bestShelf = new Shelf(mUsedHeight, height);
+            mShelves.add(bestShelf);
+            mUsedHeight += height;
+        }
+
+        final Rect slot = new Rect(bestShelf.mNextX, bestShelf.mTop, bestShelf.mNextX + width,
+                bestShelf.mTop + bestShelf.mHeight);
+        bestShelf.mNextX += width;
+        store(entry, bestShelf, slot, false, source, sourceBounds);
+    }
+
+    private void store(Entry entry, Shelf shelf, Rect slot, boolean reused, Bitmap source, Rect sourceBounds) {
+        entry.mShelf = shelf;
+        entry.mSlot = slot;
+        entry.mBounds.set(slot.left, slot.top, slot.left + entry.mWidth, slot.top + entry.mHeight);
+
+        if (reused) {
+            // Erase the previous icon of the slot
+            mCanvas.save();
+            mCanvas.clipRect(slot);
+            mCanvas.drawColor(0, PorterDuff.Mode.CLEAR);
+            mCanvas.restore();
+        }
+        mCanvas.drawBitmap(source, sourceBounds, entry.mBounds, null);
+    }
+
+    /**
+     * Make the atlas bitmap at least the given height, keeping what has been drawn so far
+     */
+    private void ensureHeight(int height) {
+        if (mBitmap != null && mBitmap.getHeight() >= height) {
+            return;
+        }
+
+        final int newHeight = Math.max(height, mBitmap != null ? mBitmap.getHeight() * 2 : 0);
+        final Bitmap bitmap = Bitmap.createBitmap(mWidth, newHeight, Bitmap.Config.ARGB_8888);
+        final Canvas canvas = new Canvas(bitmap);
+        if (mBitmap != null) {
+            canvas.drawBitmap(mBitmap, 0, 0, null);
+        }
+
+        // The previous bitmap may still be referenced by display lists, so it isn't recycled
+        mBitmap = bitmap;
+        mCanvas = canvas;
+        mOnAtlasChanged.run();
+    }
+
+    /**
+     * Lay out all entries again, copying the packed icons from the current atlas bitmap
+     *
+     * @param newEntry Entry which hasn't been packed yet, if any
+     * @param newIcon  Icon of the new entry
+     */
+    private void repack(int width, Entry newEntry, Bitmap newIcon) {
+        final ArrayList<Entry> entries = new ArrayList<>(mEntries);
+        // Tallest first, so that shelves are filled by icons of similar height
+        Collections.sort(entries, new Comparator<Entry>() {
+            @Override
+            public int compare(Entry lhs, Entry rhs) {
+                return rhs.mHeight - lhs.mHeight;
+            }
+        });
+
+        final Bitmap previousBitmap = mBitmap;
+        mShelves.clear();
+        mBitmap = null;
+        mCanvas = null;
+        mWidth = width;
+        mUsedHeight = 0;
+        for (Entry entry : entries) {
+            if (entry == newEntry) {
+                place(entry, newIcon, null);
+            } else {
+                place(entry, previousBitmap, new Rect(entry.mBounds));
+            }
+        }
+        mOnAtlasChanged.run();
+    }
+
+    private static final class Shelf {
+        private final int mTop;
+        private final int mHeight;
+        private int mNextX;
+        private final ArrayList<Rect> mFreeSlots = new ArrayList<>();
+
+        private Shelf(int top, int height) {
+            mTop = top;
+            mHeight = height;
+        }
+    }
+
+    /**
+     * An icon packed into the atlas
+     */
+    static final class Entry {
+        private final IconAtlas mAtlas;
+        private final WeakReference<Bitmap> mIcon;
+        private final int mWidth;
+        private final int mHeight;
+        private final Rect mBounds = new Rect();
+        private Shelf mShelf;
+        private Rect mSlot;
+        private int mRefCount;
+
+        private Entry(IconAtlas atlas, Bitmap icon) {
+            mAtlas = atlas;
+            mIcon = new WeakReference<>(icon);
+            mWidth = icon.getWidth();
+            mHeight = icon.getHeight();
+        }
+
+        /**
+         * Create a drawable drawing the icon from the atlas
+         */
+        @NonNull
+        Drawable newDrawable() {
+            return new AtlasDrawable(this);
+        }
+
+        void release() {
+            mAtlas.release(this);
+        }
+    }
+
+    /**
+     * Draws an icon as a sub-rectangle of the atlas, wherever it currently is
+     */
+    private static final class AtlasDrawable extends Drawable {
+        private final Entry mEntry;
+        private final Paint mPaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+
+        private AtlasDrawable(Entry entry) {
+            mEntry = entry;
+        }
+
+        @Override
+        public void draw(@NonNull Canvas canvas) {
+            final Bitmap atlas = mEntry.mAtlas.mBitmap;
+            if (atlas != null) {
+                canvas.drawBitmap(atlas, mEntry.mBounds, getBounds(), mPaint);
+            }
+        }
+
+        @Override
+        public int getIntrinsicWidth() {
+            return mEntry.mWidth;
+        }
+
+        @Override
+        public int getIntrinsicHeight() {
+            return mEntry.mHeight;
+        }
+
+        @Override
+        public void setAlpha(int alpha) {
+            mPaint.setAlpha(alpha);
+            invalidateSelf();
+        }
+
+        @Override
+        public void setColorFilter(ColorFilter colorFilter) {
+            mPaint.setColorFilter(colorFilter);
+            invalidateSelf();
+        }
+
+        @Override
+        public int getOpacity() {
+            return PixelFormat.TRANSLUCENT;
+        }
+    }
+}
@@ -0,0 +1,327 @@
+/*
+ * Copyright (C) 2016 Dardle Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package au.com.dardle.widget;
+
+import android.content.Context;
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.Rect;
+import android.graphics.drawable.Drawable;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.annotation.AnyThread;
+import android.support.annotation.MainThread;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.annotation.WorkerThread;
+import android.util.Log;
+import android.util.LruCache;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.WeakHashMap;
+import java.util.concurrent.Executor;
+
+/**
+ * Decodes icons of {@link IconSource}s in the background, downsampled to fit a square icon slot, and
+ * keeps them in a process wide LRU cache bounded by memory and keyed by source and slot size. Drawables
+ * are rasterized on the main thread into the same cache, keyed by theme and, if they are stateful, badge state
+ * as well. Rasterized icons are dropped when the configuration changes.
+ */
+final class IconLoader {
+    private static final String TAG = "IconLoader";
+
+    private static final Handler sMainHandler = new Handler(Looper.getMainLooper());
+
+    // Up to 1/16 of the heap, in bytes
+    private static final LruCache<String, Bitmap> sCache = new LruCache<String, Bitmap>(
+            (int) Math.min(Runtime.getRuntime().maxMemory() / 16, Integer.MAX_VALUE)) {
+        @Override
+        protected int sizeOf(String key, Bitmap value) {
+            return value.getByteCount();
+        }
+    };
+
+    // Whether the drawable of a rasterized source depends on its state, by source key, main thread only
+    private static final HashMap<String, Boolean> sStatefulSources = new HashMap<>();
+
+    // Ids of the themes drawables have been rasterized with, as they may resolve tints, main thread only
+    private static final WeakHashMap<Resources.Theme, Integer> sThemeIds = new WeakHashMap<>();
+    private static int sNextThemeId;
+
+    /**
+     * Receives the result of a load on the main thread, unless it has been cancelled
+     */
+    interface Callback {
+        void onIconLoaded(@NonNull IconSource iconSource, @Nullable Bitmap bitmap);
+    }
+
+    private IconLoader() {
+    }
+
+    @Nullable
+    static Bitmap getCached(@NonNull IconSource iconSource, int size) {
+        return sCache.get(getCacheKey(iconSource, size));
+    }
+
+    /**
+     * Get the bitmap of a rasterized source, rasterizing its drawable unless it is cached already. Each
+     * combination of source, size, theme and, for stateful drawables, state is rendered once.
+     *
+     * @param context    Context to load the drawable with
+     * @param iconSource Source of the icon
+     * @param size       Size of the icon slot, in pixels
+     * @param selected   Whether the badge is selected
+     * @param enabled    Whether the badge is enabled
+     * @return The rasterized icon, or null if the source has no drawable
+     */
+    @MainThread
+    @Nullable
+    static Bitmap rasterize(@NonNull Context context, @NonNull IconSource iconSource, int size, boolean selected,
+                            boolean enabled) {
+        final String key = getCacheKey(iconSource, size) + '#' + getThemeId(context.getTheme());
+        final String stateKey = key + (selected ? "/selected" : "") + (enabled ? "/enabled" : "");
+
+        // Until the drawable has been loaded once, it is assumed to be stateful
+        final Boolean stateful = sStatefulSources.get(iconSource.getKey());
+        Bitmap bitmap = sCache.get(stateful == null || stateful ? stateKey : key);
+        if (bitmap != null) {
+            return bitmap;
+        }
+
+        final Drawable drawable = iconSource.loadDrawable(context);
+        if (drawable == null) {
+            return null;
+        }
+
+        final int[] state = new int[]{
+                selected ? android.R.attr.state_selected : -android.R.attr.state_selected,
+                enabled ? android.R.attr.state_enabled : -android.R.attr.state_enabled};
+        drawable.setState(state);
+        sStatefulSources.put(iconSource.getKey(), drawable.isStateful());
+
+        final Rect bounds = new Rect();
+        getRasterizedBounds(drawable, size, bounds);
+        bitmap = Bitmap.createBitmap(bounds.width(), bounds.height(), Bitmap.Config.ARGB_8888);
+        drawable.setBounds(bounds);
+        drawable.draw(new Canvas(bitmap));
+        bitmap.setDensity(context.getResources().getDisplayMetrics().densityDpi);
+
+        sCache.put(drawable.isStateful() ? stateKey : key, bitmap);
+        return bitmap;
+    }
+
+    /**
+     * Get the size a drawable is rasterized at: shrunk to fit the slot, never enlarged, and filling the slot
+     * if it has no intrinsic size
+     *
+     * @param drawable  The drawable
+     * @param size      Size of the icon slot, in pixels
+     * @param outBounds Receives the bounds of the rasterized drawable, at the origin
+     */
+    @AnyThread
+    static void getRasterizedBounds(@NonNull Drawable drawable, int size, @NonNull Rect outBounds) {
+        final int width = Math.max(1, drawable.getIntrinsicWidth() > 0 ? drawable.getIntrinsicWidth() : size);
+        final int height = Math.max(1, drawable.getIntrinsicHeight() > 0 ? drawable.getIntrinsicHeight() : size);
+        final float scale = Math.min(1f, (float) size / Math.max(width, height));
+        outBounds.set(0, 0, Math.max(1, Math.round(width * scale)), Math.max(1, Math.round(height * scale)));
+    }
+
+    /**
+     * Load an icon in the background, unless it is cached already
+     *
+     * @param context    Context to open the source with
+     * @param iconSource Source of the icon
+     * @param size       Size of the icon slot, in pixels
+     * @param executor   Executor to decode the icon on
+     * @param callback   Callback receiving the icon
+     * @return The pending request, to cancel it once its result isn't needed anymore
+     */
+    @MainThread
+    @NonNull
+    static Request load(@NonNull Context context, @NonNull IconSource iconSource, int size,
+                        @NonNull Executor executor, @NonNull Callback callback) {
+        final Request request = new Request(context.getApplicationContext(), iconSource, size, callback);
+        executor.execute(request);
+        return request;
+    }
+
+    /**
+     * Load an icon on the calling thread, unless it is cached already
+     *
+     * @param context    Context to open the source with
+     * @param iconSource Source of the icon
+     * @param size       Size of the icon slot, in pixels
+     * @return The icon, or null if it can't be decoded
+     */
+    @WorkerThread
+    @Nullable
+    static Bitmap loadSync(@NonNull Context context, @NonNull IconSource iconSource, int size) {
+        final String cacheKey = getCacheKey(iconSource, size);
+        Bitmap bitmap = sCache.get(cacheKey);
+        if (bitmap == null) {
+            try {
+                bitmap = decode(context, iconSource, size);
+            } catch (IOException | RuntimeException e) {
+                Log.w(TAG, "Unable to load icon " + iconSource.getKey(), e);
+            }
+            if (bitmap != null) {
+                sCache.put(cacheKey, bitmap);
+            }
+        }
+        return bitmap;
+    }
+
+    static void clear() {
+        sCache.evictAll();
+        sStatefulSources.clear();
+    }
+
+    /**
+     * Drop the rasterized icons, which may depend on the configuration they have been rendered with
+     */
+    @MainThread
+    static void clearRasterized() {
+        for (String key : sCache.snapshot().keySet()) {
+            final int sizeStart = key.lastIndexOf('@');
+            if (sizeStart >= 0 && sStatefulSources.containsKey(key.substring(0, sizeStart))) {
+                sCache.remove(key);
+            }
+        }
+        sStatefulSources.clear();
+    }
+
+    static int size() {
+        return sCache.size();
+    }
+
+    static int getHitCount() {
+        return sCache.hitCount();
+    }
+
+    static int getMissCount() {
+        return sCache.missCount();
+    }
+
+    private static String getCacheKey(IconSource iconSource, int size) {
+        return iconSource.getKey() + '@' + size;
+    }
+
+    private static int getThemeId(Resources.Theme theme) {
+        Integer themeId = sThemeIds.get(theme);
+        if (themeId == null) {
+            themeId = sNextThemeId++;
+            sThemeIds.put(theme, themeId);
+        }
+        return themeId;
+    }
+
+    @WorkerThread
+    @Nullable
+    private static Bitmap decode(Context context, IconSource iconSource, int size) throws IOException {
+        // Read the bounds first, to decode no more pixels than needed
+        final BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        decodeStream(context, iconSource, options);
+        if (options.outWidth <= 0 || options.outHeight <= 0) {
+            return null;
+        }
+
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = 1;
+        while (options.outWidth / (options.inSampleSize * 2) >= size
+                && options.outHeight / (options.inSampleSize * 2) >= size) {
+            options.inSampleSize *= 2;
+        }
+        Bitmap bitmap = decodeStream(context, iconSource, options);
+        if (bitmap == null) {
+            return null;
+        }
+
+        // Sampling only divides by powers of 2, scale the rest of the way to fit the slot
+        final float scale = Math.min(1f, (float) size / Math.max(bitmap.getWidth(), bitmap.getHeight()));
+        if (scale < 1f) {
+            final Bitmap scaled = Bitmap.createScaledBitmap(bitmap, Math.max(1, Math.round(bitmap.getWidth() * scale)),
+                    Math.max(1, Math.round(bitmap.getHeight() * scale)), true);
+            if (scaled != bitmap) {
+                bitmap.recycle();
+                bitmap = scaled;
+            }
+        }
+
+        // Pixels are displayed as they are, whatever the density of the source
+        bitmap.setDensity(context.getResources().getDisplayMetrics().densityDpi);
+        return bitmap;
+    }
+
+    private static Bitmap decodeStream(Context context, IconSource iconSource, BitmapFactory.Options options)
+            throws IOException {
+        final InputStream inputStream = iconSource.openStream(context);
+        try {
+            return BitmapFactory.decodeStream(inputStream, null, options);
+        } finally {
+            inputStream.close();
+        }
+    }
+
+    /**
+     * A pending load, decoding its icon on the executor and delivering it on the main thread
+     */
+    static final class Request implements Runnable {
+        private final Context mContext;
+        private final IconSource mIconSource;
+        private final int mSize;
+        private final Callback mCallback;
+        private volatile boolean mCancelled = false;
+
+        private Request(Context context, IconSource iconSource, int size, Callback callback) {
+            mContext = context;
+            mIconSource = iconSource;
+            mSize = size;
+            mCallback = callback;
+        }
+
+        /**
+         * Cancel the request. The callback won't be invoked, and the icon isn't decoded if it hasn't
+         * started yet.
+         */
+        @MainThread
+        void cancel() {
+            mCancelled = true;
+        }
+
+        @Override
+        public void run() {
+            if (mCancelled) {
+                return;
+            }
+
+            final Bitmap result = loadSync(mContext, mIconSource, mSize);
+            sMainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    if (!mCancelled) {
+                        mCallback.onIconLoaded(mIconSource, result);
+                    }
+                }
+            });
+        }
+    }
+}
@@ -0,0 +1,164 @@
+/*
+ * Copyright (C) 2016 Dardle Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package au.com.dardle.widget;
+
+import android.content.Context;
+import android.graphics.drawable.Drawable;
+import android.net.Uri;
+import android.support.annotation.AnyThread;
+import android.support.annotation.DrawableRes;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.annotation.WorkerThread;
+import android.support.v4.content.ContextCompat;
+import android.util.TypedValue;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * A local image which is decoded in the background, downsampled to the icon size of the badge layout and
+ * cached, see {@link BadgeLayout.Badge#setIcon(IconSource)}.
+ * <p>
+ * <p>Drawable resources which aren't bitmaps, such as vector drawables, are inflated as drawables instead. If
+ * the badge layout rasterizes icons, see {@link BadgeLayout#setRasterizeIcons(boolean)}, they are rendered
+ * once per size, theme and badge state, and the bitmap is shared by all badges displaying them.</p>
+ * <p>
+ * <p>Sources are identified by their key: two sources with the same key must provide the same image.</p>
+ */
+public abstract class IconSource {
+    /**
+     * Create a source reading a drawable resource. Bitmaps are decoded in the background, other drawables
+     * are inflated, and rasterized if the badge layout rasterizes icons, on the main thread.
+     *
+     * @param resId The drawable resource
+     * @return The icon source
+     */
+    @NonNull
+    public static IconSource fromResource(@DrawableRes final int resId) {
+        return new IconSource() {
+            // Whether the resource is an XML drawable, resolved on first use by whichever thread comes first
+            private volatile Boolean mRasterized;
+
+            @NonNull
+            @Override
+            public String getKey() {
+                return "res:" + resId;
+            }
+
+            @Override
+            boolean isRasterized(@NonNull Context context) {
+                Boolean rasterized = mRasterized;
+                if (rasterized == null) {
+                    final TypedValue value = new TypedValue();
+                    context.getResources().getValue(resId, value, true);
+                    rasterized = value.string != null && value.string.toString().endsWith(".xml");
+                    mRasterized = rasterized;
+                }
+                return rasterized;
+            }
+
+            @Nullable
+            @Override
+            Drawable loadDrawable(@NonNull Context context) {
+                return ContextCompat.getDrawable(context, resId);
+            }
+
+            @NonNull
+            @Override
+            public InputStream openStream(@NonNull Context context) throws IOException {
+                return context.getResources().openRawResource(resId);
+            }
+        };
+    }
+
+    /**
+     * Create a source reading a local image, with a {@code file}, {@code content} or
+     * {@code android.resource} uri
+     *
+     * @param uri The uri of the image
+     * @return The icon source
+     */
+    @NonNull
+    public static IconSource fromUri(@NonNull final Uri uri) {
+        return new IconSource() {
+            @NonNull
+            @Override
+            public String getKey() {
+                return uri.toString();
+            }
+
+            @NonNull
+            @Override
+            public InputStream openStream(@NonNull Context context) throws IOException {
+                final InputStream inputStream = context.getContentResolver().openInputStream(uri);
+                if (inputStream == null) {
+                    throw new IOException("Unable to open " + uri);
+                }
+                return inputStream;
+            }
+        };
+    }
+
+    /**
+     * Return the key identifying the image, used to cache decoded icons
+     *
+     * @return The key of the source
+     */
+    @NonNull
+    public abstract String getKey();
+
+    /**
+     * Open the encoded image. Called on a background thread, possibly more than once per decode.
+     *
+     * @param context The context of the badge layout
+     * @return A stream of the encoded image, closed by the caller
+     * @throws IOException If the image can't be read
+     */
+    @WorkerThread
+    @NonNull
+    public abstract InputStream openStream(@NonNull Context context) throws IOException;
+
+    /**
+     * Whether the source is a drawable to inflate, and possibly rasterize, rather than an image to decode.
+     * Badge layouts call it on the main thread, a {@link BadgeRenderer} on the thread it renders on.
+     */
+    @AnyThread
+    boolean isRasterized(@NonNull Context context) {
+        return false;
+    }
+
+    /**
+     * Load the drawable of the source, if {@link #isRasterized(Context)}. Inflating resources is thread
+     * safe, so this may be called on any thread as well.
+     */
+    @AnyThread
+    @Nullable
+    Drawable loadDrawable(@NonNull Context context) {
+        return null;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return this == o || o instanceof IconSource && getKey().equals(((IconSource) o).getKey());
+    }
+
+    @Override
+    public int hashCode() {
+        return getKey().hashCode();
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright (C) 2016 Dardle Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package au.com.dardle.widget;
+
+import java.util.List;
+
+/**
+ * Positions of the items of a list, cached in the items themselves.
+ * <p>
+ * <p>Cached positions are valid for the items [0, valid count). Inserting or removing an item makes the
+ * positions from it onwards stale, and they are refreshed on the next lookup of a stale item, so looking
+ * up positions is O(1) unless items have been inserted or removed before them since the last lookup.</p>
+ *
+ * @param <T> The type of the items
+ */
+abstract class PositionCache<T> {
+    private int mValidCount;
+
+    abstract int getCachedPosition(T item);
+
+    abstract void setCachedPosition(T item, int position);
+
+    /**
+     * Get the position of an item of the list
+     *
+     * @param items The list, which must hold the item
+     * @param item  The item
+     * @return Position of the item
+     */
+    int indexOf(List<T> items, T item) {
+        if (getCachedPosition(item) >= mValidCount) {
+            // Positions from the first inserted or removed item onwards are stale
+            for (int i = mValidCount; i < items.size(); i++) {
+                setCachedPosition(items.get(i), i);
+            }
+            mValidCount = items.size();
+        }
+        return getCachedPosition(item);
+    }
+
+    /**
+     * Record that an item has been inserted into the list
+     *
+     * @param items The list, once the item has been inserted
+     * @param index Position of the inserted item
+     */
+    void onInserted(List<T> items, int index) {
+        setCachedPosition(items.get(index), index);
+        if (index == mValidCount && index == items.size() - 1) {
+            // Appended, no item has been shifted
+            mValidCount++;
+        } else {
+            mValidCount = Math.min(mValidCount, index);
+        }
+    }
+
+    /**
+     * Record that an item has been removed from the list
+     *
+     * @param index Former position of the removed item
+     */
+    void onRemoved(int index) {
+        mValidCount = Math.min(mValidCount, index);
+    }
+
+    /**
+     * Make all cached positions stale, e.g. once the list has been replaced
+     */
+    void invalidate() {
+        mValidCount = 0;
+    }
+}
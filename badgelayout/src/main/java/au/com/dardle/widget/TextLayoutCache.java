@@ -0,0 +1,132 @@
+/*
+ * Copyright (C) 2016 Dardle Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package au.com.dardle.widget;
+
+import android.graphics.Typeface;
+import android.support.annotation.NonNull;
+import android.text.Layout;
+import android.text.StaticLayout;
+import android.text.TextPaint;
+import android.text.TextUtils;
+import android.util.LruCache;
+
+/**
+ * Process wide LRU cache of single line, end ellipsized text layouts, keyed by text, text size, typeface and
+ * maximum width. Badge labels repeat a lot across layouts, so binding a known label reuses its layout
+ * without measuring or shaping the text again.
+ * <p>
+ * <p>Each cached layout has its own paint. Callers must set the color of {@link Layout#getPaint()} right
+ * before drawing, on the main thread, as the layout may be shared by views in different states.</p>
+ */
+final class TextLayoutCache {
+    private static final int MAX_SIZE = 256;
+
+    private static final LruCache<Key, StaticLayout> sCache = new LruCache<>(MAX_SIZE);
+
+    private TextLayoutCache() {
+    }
+
+    /**
+     * Get the layout of a single line of text, building and caching it if needed
+     *
+     * @param text         Plain text to lay out, spans are not taken into account
+     * @param paint        Paint providing the text size and typeface
+     * @param maxTextWidth Maximum width of the text, longer text is ellipsized
+     * @return The text layout
+     */
+    @NonNull
+    static StaticLayout obtain(@NonNull String text, @NonNull TextPaint paint, int maxTextWidth) {
+        final Key key = new Key(text, paint.getTextSize(), paint.getTypeface(), maxTextWidth);
+        StaticLayout layout = sCache.get(key);
+        if (layout == null) {
+            layout = build(text, new TextPaint(paint), maxTextWidth);
+            sCache.put(key, layout);
+        }
+        return layout;
+    }
+
+    /**
+     * Build the layout of a single line of text, ellipsized at the end like the text view of the default
+     * badge view
+     */
+    @NonNull
+    static StaticLayout build(@NonNull CharSequence text, @NonNull TextPaint paint, int maxTextWidth) {
+        final int desiredWidth = (int) Math.ceil(Layout.getDesiredWidth(text, paint));
+        final int textWidth = Math.min(desiredWidth, maxTextWidth);
+
+        CharSequence displayedText = text;
+        if (textWidth < desiredWidth) {
+            displayedText = TextUtils.ellipsize(text, paint, textWidth, TextUtils.TruncateAt.END);
+        }
+        return new StaticLayout(displayedText, paint, textWidth, Layout.Alignment.ALIGN_NORMAL, 1.0f, 0.0f, true);
+    }
+
+    static void clear() {
+        sCache.evictAll();
+    }
+
+    static int size() {
+        return sCache.size();
+    }
+
+    static int getHitCount() {
+        return sCache.hitCount();
+    }
+
+    static int getMissCount() {
+        return sCache.missCount();
+    }
+
+    private static final class Key {
+        private final String mText;
+        private final float mTextSize;
+        private final Typeface mTypeface;
+        private final int mMaxTextWidth;
+
+        Key(String text, float textSize, Typeface typeface, int maxTextWidth) {
+            mText = text;
+            mTextSize = textSize;
+            mTypeface = typeface;
+            mMaxTextWidth = maxTextWidth;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+
+            final Key key = (Key) o;
+            return mTextSize == key.mTextSize
+                    && mMaxTextWidth == key.mMaxTextWidth
+                    && mTypeface == key.mTypeface
+                    && mText.equals(key.mText);
+        }
+
+        @Override
+        public int hashCode() {
+            int result = mText.hashCode();
+            result = 31 * result + Float.floatToIntBits(mTextSize);
+            result = 31 * result + (mTypeface != null ? mTypeface.hashCode() : 0);
+            result = 31 * result + mMaxTextWidth;
+            return result;
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package au.com.dardle.widget;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests of the move detection of {@link BadgeDiff}
+ */
+public class BadgeDiffTest {
+    @Test
+    public void findMoved_keepsUnchangedOrder() throws Exception {
+        final boolean[] moved = BadgeDiff.findMoved(new int[]{0, 1, 2, 3}, 4);
+
+        assertEquals(0, countMoved(moved));
+    }
+
+    @Test
+    public void findMoved_movesOneBadgeToFront() throws Exception {
+        final boolean[] moved = BadgeDiff.findMoved(new int[]{3, 0, 1, 2}, 4);
+
+        assertEquals(1, countMoved(moved));
+        assertTrue(moved[0]);
+    }
+
+    @Test
+    public void findMoved_reversal() throws Exception {
+        final boolean[] moved = BadgeDiff.findMoved(new int[]{3, 2, 1, 0}, 4);
+
+        assertEquals(3, countMoved(moved));
+    }
+
+    @Test
+    public void findMoved_ignoresInsertedBadges() throws Exception {
+        final boolean[] moved = BadgeDiff.findMoved(new int[]{-1, 1, -1, 0, 2}, 3);
+
+        assertFalse(moved[0]);
+        assertFalse(moved[2]);
+        assertEquals(1, countMoved(moved));
+    }
+
+    @Test
+    public void findMoved_keepsLongestIncreasingSubsequence() throws Exception {
+        final Random random = new Random(3);
+        for (int round = 0; round < 200; round++) {
+            final int size = random.nextInt(12);
+            final int[] newToOld = new int[size];
+            for (int i = 0; i < size; i++) {
+                newToOld[i] = i;
+            }
+            for (int i = size - 1; i > 0; i--) {
+                final int j = random.nextInt(i + 1);
+                final int swap = newToOld[i];
+                newToOld[i] = newToOld[j];
+                newToOld[j] = swap;
+            }
+
+            final boolean[] moved = BadgeDiff.findMoved(newToOld, size);
+
+            // Badges left in place keep their relative order, and no longer such run exists
+            int last = -1;
+            for (int i = 0; i < size; i++) {
+                if (!moved[i]) {
+                    assertTrue(newToOld[i] > last);
+                    last = newToOld[i];
+                }
+            }
+            assertEquals(longestIncreasingRun(newToOld), size - countMoved(moved));
+        }
+    }
+
+    @Test
+    public void checkIds_acceptsUniqueIds() throws Exception {
+        BadgeDiff.checkIds(Arrays.asList(new BadgeModel.Builder(1).build(), new BadgeModel.Builder(2).build()));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void checkIds_rejectsDuplicateIds() throws Exception {
+        BadgeDiff.checkIds(Arrays.asList(new BadgeModel.Builder(1).build(), new BadgeModel.Builder(2).build(),
+                new BadgeModel.Builder(1).build()));
+    }
+
+    private static int countMoved(boolean[] moved) {
+        int count = 0;
+        for (boolean m : moved) {
+            if (m) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static int longestIncreasingRun(int[] values) {
+        final int[] lengths = new int[values.length];
+        int longest = 0;
+        for (int i = 0; i < values.length; i++) {
+            lengths[i] = 1;
+            for (int j = 0; j < i; j++) {
+                if (values[j] < values[i]) {
+                    lengths[i] = Math.max(lengths[i], lengths[j] + 1);
+                }
+            }
+            longest = Math.max(longest, lengths[i]);
+        }
+        return longest;
+    }
+}
@@ -0,0 +1,125 @@
+package au.com.dardle.widget;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests of {@link BadgeFlowIndex}
+ */
+public class BadgeFlowIndexTest {
+    @Test
+    public void lines_wrapAtMaxWidth() throws Exception {
+        final BadgeFlowIndex index = newIndex(5, 50, new int[]{20, 20, 20, 40, 10}, new int[]{10, 12, 8, 8, 20});
+
+        // [20, 20] [20] [40] [10] can't share lines as 20 + 5 + 20 + 5 + 20 > 50
+        assertEquals(4, index.getLineCount());
+        assertEquals(0, index.getLeft(0));
+        assertEquals(25, index.getLeft(1));
+        assertEquals(0, index.getLeft(2));
+        assertEquals(0, index.getLineTop(1));
+        assertEquals(12, index.getLineHeight(1));
+        assertEquals(17, index.getLineTop(2));
+        assertEquals(30, index.getLineTop(3));
+        assertEquals(43, index.getLineTop(4));
+        assertEquals(63, index.getTotalHeight());
+        assertEquals(45, index.getTotalWidth());
+    }
+
+    @Test
+    public void wideBadge_getsItsOwnLine() throws Exception {
+        final BadgeFlowIndex index = newIndex(0, 50, new int[]{80, 10}, new int[]{10, 10});
+
+        assertEquals(2, index.getLineCount());
+        assertEquals(0, index.getLeft(0));
+        assertEquals(10, index.getLineTop(1));
+        assertEquals(80, index.getTotalWidth());
+    }
+
+    @Test
+    public void resize_rebreaksPreviousLine() throws Exception {
+        final BadgeFlowIndex index = newIndex(0, 50, new int[]{30, 30}, new int[]{10, 10});
+        assertEquals(2, index.getLineCount());
+
+        // The second badge now fits at the end of the first line
+        index.setSize(1, 20, 10);
+        assertEquals(1, index.getLineCount());
+        assertEquals(30, index.getLeft(1));
+
+        index.remove(0);
+        index.insert(0);
+        index.setSize(0, 40, 10);
+        assertEquals(2, index.getLineCount());
+    }
+
+    @Test
+    public void indexAt_findsLineThenBadge() throws Exception {
+        final BadgeFlowIndex index = newIndex(5, 50, new int[]{20, 20, 20}, new int[]{10, 10, 10});
+        assertEquals(-1, new BadgeFlowIndex().indexAt(0, 0));
+
+        assertEquals(0, index.indexAt(0, 0));
+        assertEquals(0, index.indexAt(24, 9));
+        assertEquals(1, index.indexAt(25, 9));
+        assertEquals(2, index.indexAt(0, 15));
+        assertEquals(2, index.indexAt(100, 100));
+    }
+
+    @Test
+    public void randomEdits_matchRebuiltIndex() throws Exception {
+        final Random random = new Random(7);
+        final BadgeFlowIndex index = new BadgeFlowIndex();
+        index.setSpacing(3);
+        index.setMaxWidth(100);
+        final List<int[]> sizes = new ArrayList<>();
+
+        for (int step = 0; step < 1000; step++) {
+            final int operation = random.nextInt(3);
+            if (operation == 0 || sizes.isEmpty()) {
+                final int position = random.nextInt(sizes.size() + 1);
+                final int[] size = {random.nextInt(60), random.nextInt(30)};
+                sizes.add(position, size);
+                index.insert(position);
+                index.setSize(position, size[0], size[1]);
+            } else if (operation == 1) {
+                final int position = random.nextInt(sizes.size());
+                sizes.remove(position);
+                index.remove(position);
+            } else {
+                final int position = random.nextInt(sizes.size());
+                final int[] size = {random.nextInt(60), random.nextInt(30)};
+                sizes.set(position, size);
+                index.setSize(position, size[0], size[1]);
+            }
+
+            final BadgeFlowIndex rebuilt = new BadgeFlowIndex();
+            rebuilt.setSpacing(3);
+            rebuilt.setMaxWidth(100);
+            for (int i = 0; i < sizes.size(); i++) {
+                rebuilt.insert(i);
+                rebuilt.setSize(i, sizes.get(i)[0], sizes.get(i)[1]);
+            }
+
+            assertEquals(rebuilt.getLineCount(), index.getLineCount());
+            assertEquals(rebuilt.getTotalHeight(), index.getTotalHeight());
+            for (int i = 0; i < sizes.size(); i++) {
+                assertEquals(rebuilt.getLeft(i), index.getLeft(i));
+                assertEquals(rebuilt.getLineTop(i), index.getLineTop(i));
+            }
+        }
+    }
+
+    private static BadgeFlowIndex newIndex(int spacing, int maxWidth, int[] widths, int[] heights) {
+        final BadgeFlowIndex index = new BadgeFlowIndex();
+        index.setSpacing(spacing);
+        index.setMaxWidth(maxWidth);
+        for (int i = 0; i < widths.length; i++) {
+            index.insert(i);
+            index.setSize(i, widths[i], heights[i]);
+        }
+        return index;
+    }
+}
@@ -0,0 +1,546 @@
+package au.com.dardle.widget;
+
+import android.app.Activity;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.drawable.ColorDrawable;
+import android.graphics.drawable.Drawable;
+import android.graphics.drawable.ShapeDrawable;
+import android.graphics.drawable.shapes.RectShape;
+import android.text.Editable;
+import android.text.TextWatcher;
+import android.view.MotionEvent;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.ImageView;
+import android.widget.TextView;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowLooper;
+import org.robolectric.util.ReflectionHelpers;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests of {@link BadgeLayout}
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = 25)
+public class BadgeLayoutTest {
+    private static final Executor DIRECT_EXECUTOR = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    @Test
+    public void submitBadges_onlyAppliesChangedProperties() throws Exception {
+        final BadgeLayout badgeLayout = newBadgeLayout();
+        final Object tag = new String("Tag");
+        badgeLayout.submitBadges(Arrays.asList(new BadgeModel.Builder(1)
+                .setText("Before")
+                .setIconResource(android.R.drawable.ic_menu_add)
+                .setTag(tag)
+                .build()));
+        measureAndLayout(badgeLayout);
+        final View badgeView = getBadgeView(badgeLayout, 0);
+        final Object icon = findImageView(badgeView).getDrawable();
+        assertNotNull(icon);
+
+        badgeLayout.submitBadges(Arrays.asList(new BadgeModel.Builder(1)
+                .setText("After")
+                .setIconResource(android.R.drawable.ic_menu_add)
+                .setTag(new String("Tag"))
+                .build()));
+        measureAndLayout(badgeLayout);
+
+        final BadgeLayout.Badge badge = badgeLayout.getBadgeAt(0);
+        assertEquals("After", badge.getText());
+        assertSame(tag, badge.getTag());
+        assertSame(badgeView, getBadgeView(badgeLayout, 0));
+        assertSame(icon, findImageView(badgeView).getDrawable());
+    }
+
+    @Test
+    public void submitBadges_sameModelsTouchNoBadge() throws Exception {
+        final BadgeLayout badgeLayout = newBadgeLayout();
+        badgeLayout.submitBadges(Arrays.asList(
+                new BadgeModel.Builder(1).setText("First").build(),
+                new BadgeModel.Builder(2).setText("Second").setSelected(true).build()));
+        measureAndLayout(badgeLayout);
+        final BadgeLayout.Badge first = badgeLayout.getBadgeAt(0);
+        final View firstView = getBadgeView(badgeLayout, 0);
+
+        badgeLayout.submitBadges(Arrays.asList(
+                new BadgeModel.Builder(1).setText("First").build(),
+                new BadgeModel.Builder(2).setText("Second").setSelected(true).build()));
+
+        assertSame(first, badgeLayout.getBadgeAt(0));
+        assertSame(firstView, getBadgeView(badgeLayout, 0));
+        assertFalse(badgeLayout.getChildAt(0).isLayoutRequested());
+    }
+
+    @Test
+    public void removeBadge_flattenedViewDropsIcon() throws Exception {
+        final BadgeLayout badgeLayout = newBadgeLayout();
+        badgeLayout.setBadgeRenderMode(BadgeLayout.BadgeRenderMode.FLATTENED);
+        final Drawable icon = new ColorDrawable(Color.RED);
+        final BadgeLayout.Badge badge = badgeLayout.newBadge().setIcon(icon);
+        badgeLayout.addBadge(badge);
+        measureAndLayout(badgeLayout);
+        final View badgeView = getBadgeView(badgeLayout, 0);
+        assertSame(badgeView, icon.getCallback());
+
+        badgeLayout.removeBadge(badge);
+        assertNull(icon.getCallback());
+    }
+
+    @Test
+    public void setBadgeRenderMode_recyclesViewsOfPreviousMode() throws Exception {
+        final BadgeLayout badgeLayout = newBadgeLayout();
+        final BadgeViewPool pool = new BadgeViewPool();
+        badgeLayout.setBadgeViewPool(pool);
+        badgeLayout.setBadgeRenderMode(BadgeLayout.BadgeRenderMode.FLATTENED);
+        badgeLayout.addBadge(badgeLayout.newBadge().setIcon(new ColorDrawable(Color.RED)));
+        badgeLayout.addBadge(badgeLayout.newBadge().setText("Badge"));
+        measureAndLayout(badgeLayout);
+
+        badgeLayout.setBadgeRenderMode(BadgeLayout.BadgeRenderMode.VIEWS);
+        measureAndLayout(badgeLayout);
+        assertEquals(2, pool.getSize(BadgeLayout.BadgeRenderMode.FLATTENED));
+        assertEquals(2, ((ViewGroup) badgeLayout.getChildAt(0)).getChildCount());
+    }
+
+    @Test
+    public void uniformBadgeSize_givesEveryViewTheFirstSize() throws Exception {
+        final BadgeLayout badgeLayout = newBadgeLayout();
+        badgeLayout.setUniformBadgeSize(true);
+        for (int i = 0; i < 5; i++) {
+            badgeLayout.addBadge(badgeLayout.newBadge().setText("Badge"));
+        }
+        measureAndLayout(badgeLayout);
+        final View first = getBadgeView(badgeLayout, 0);
+
+        badgeLayout.getBadgeAt(3).setText("A much longer badge text");
+        measureAndLayout(badgeLayout);
+        for (int i = 1; i < 5; i++) {
+            final View view = getBadgeView(badgeLayout, i);
+            assertEquals(first.getMeasuredWidth(), view.getMeasuredWidth());
+            assertEquals(first.getMeasuredHeight(), view.getMeasuredHeight());
+            assertEquals(first.getWidth() * i + badgeLayout.getSpacing() * i, view.getLeft());
+        }
+    }
+
+    @Test
+    public void setSelected_onlyUpdatesTheState() throws Exception {
+        final BadgeLayout badgeLayout = newAttachedBadgeLayout();
+        final BadgeLayout.Badge badge = badgeLayout.newBadge().setText("Badge");
+        badgeLayout.addBadge(badge);
+        runFrames();
+        final View badgeView = getBadgeView(badgeLayout, 0);
+        final TextChangeCounter textChanges = new TextChangeCounter();
+        findTextView(badgeView).addTextChangedListener(textChanges);
+
+        badge.setSelected(true);
+        runFrames();
+        assertTrue(badgeView.isSelected());
+        assertSame(badgeView, getBadgeView(badgeLayout, 0));
+        assertEquals(0, textChanges.mCount);
+
+        badge.setText("Changed");
+        runFrames();
+        assertEquals("Changed", findTextView(badgeView).getText().toString());
+        assertEquals(1, textChanges.mCount);
+    }
+
+    @Test
+    public void setters_areCoalescedUntilTheNextFrame() throws Exception {
+        final BadgeLayout badgeLayout = newAttachedBadgeLayout();
+        final BadgeLayout.Badge badge = badgeLayout.newBadge().setText("Badge");
+        badgeLayout.addBadge(badge);
+        runFrames();
+        final TextView textView = findTextView(getBadgeView(badgeLayout, 0));
+        final TextChangeCounter textChanges = new TextChangeCounter();
+        textView.addTextChangedListener(textChanges);
+
+        ShadowLooper.pauseMainLooper();
+        badge.setText("First");
+        badge.setText("Second");
+        badge.setText("Third");
+        assertEquals("Badge", textView.getText().toString());
+
+        ShadowLooper.unPauseMainLooper();
+        runFrames();
+        assertEquals("Third", textView.getText().toString());
+        assertEquals(1, textChanges.mCount);
+    }
+
+    @Test
+    public void backgroundSetters_arePublishedOnTheMainThread() throws Exception {
+        final BadgeLayout badgeLayout = newAttachedBadgeLayout();
+        final BadgeLayout.Badge badge = badgeLayout.newBadge().setText("Badge");
+        badgeLayout.addBadge(badge);
+        runFrames();
+        final TextView textView = findTextView(getBadgeView(badgeLayout, 0));
+
+        ShadowLooper.pauseMainLooper();
+        final Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                badge.setText("Background");
+                badge.setTag("Tag");
+            }
+        });
+        thread.start();
+        thread.join();
+        assertEquals("Badge", textView.getText().toString());
+        assertNull(badgeLayout.findBadgeByTag("Tag"));
+
+        ShadowLooper.unPauseMainLooper();
+        runFrames();
+        assertEquals("Background", textView.getText().toString());
+        assertSame(badge, badgeLayout.findBadgeByTag("Tag"));
+    }
+
+    @Test
+    public void backgroundSetters_ofRemovedBadgeAreDropped() throws Exception {
+        final BadgeLayout badgeLayout = newAttachedBadgeLayout();
+        final BadgeLayout.Badge badge = badgeLayout.newBadge().setText("Badge");
+        badgeLayout.addBadge(badge);
+        runFrames();
+
+        ShadowLooper.pauseMainLooper();
+        final Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                badge.setTag("Tag");
+            }
+        });
+        thread.start();
+        thread.join();
+        badgeLayout.removeBadge(badge);
+
+        ShadowLooper.unPauseMainLooper();
+        runFrames();
+        assertNull(badgeLayout.findBadgeByTag("Tag"));
+        assertEquals(0, badgeLayout.getBadgeCount());
+    }
+
+    @Test
+    public void flattened_drawsEachBadgeAsOneView() throws Exception {
+        final BadgeLayout badgeLayout = newAttachedBadgeLayout();
+        badgeLayout.setBadgeRenderMode(BadgeLayout.BadgeRenderMode.FLATTENED);
+        final BadgeLayout.Badge badge = badgeLayout.newBadge()
+                .setText("Badge")
+                .setIcon(new ColorDrawable(Color.RED));
+        badgeLayout.addBadge(badge);
+        runFrames();
+
+        final View badgeView = getBadgeView(badgeLayout, 0);
+        assertFalse(badgeView instanceof ViewGroup);
+        assertEquals("Badge", badgeView.getContentDescription());
+
+        badge.setText("Changed");
+        runFrames();
+        assertSame(badgeView, getBadgeView(badgeLayout, 0));
+        assertEquals("Changed", badgeView.getContentDescription());
+    }
+
+    @Test
+    public void batchUpdate_requestsOneLayoutWhenItEnds() throws Exception {
+        final BadgeLayout badgeLayout = newBadgeLayout();
+        badgeLayout.addBadge(badgeLayout.newBadge().setText("First"));
+        measureAndLayout(badgeLayout);
+        assertFalse(badgeLayout.isLayoutRequested());
+
+        badgeLayout.beginBatchUpdate();
+        badgeLayout.beginBatchUpdate();
+        badgeLayout.addBadges(Arrays.asList(
+                badgeLayout.newBadge().setText("Second"),
+                badgeLayout.newBadge().setText("Third")));
+        badgeLayout.getBadgeAt(0).setText("Changed");
+        badgeLayout.endBatchUpdate();
+        assertFalse(badgeLayout.isLayoutRequested());
+
+        badgeLayout.endBatchUpdate();
+        assertTrue(badgeLayout.isLayoutRequested());
+        assertEquals(3, badgeLayout.getBadgeCount());
+        assertEquals("Changed", findTextView(getBadgeView(badgeLayout, 0)).getText().toString());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void endBatchUpdate_rejectsUnbalancedCall() throws Exception {
+        newBadgeLayout().endBatchUpdate();
+    }
+
+    @Test
+    public void setBadges_keepsViewsOfRetainedBadges() throws Exception {
+        final BadgeLayout badgeLayout = newBadgeLayout();
+        final BadgeLayout.Badge first = badgeLayout.newBadge().setText("First");
+        final BadgeLayout.Badge second = badgeLayout.newBadge().setText("Second");
+        final BadgeLayout.Badge third = badgeLayout.newBadge().setText("Third");
+        badgeLayout.addBadges(Arrays.asList(first, second, third));
+        measureAndLayout(badgeLayout);
+        final View firstView = getBadgeView(badgeLayout, 0);
+        final View thirdView = getBadgeView(badgeLayout, 2);
+
+        badgeLayout.setBadges(Arrays.asList(third, first));
+        measureAndLayout(badgeLayout);
+        assertEquals(2, badgeLayout.getBadgeCount());
+        assertSame(thirdView, getBadgeView(badgeLayout, 0));
+        assertSame(firstView, getBadgeView(badgeLayout, 1));
+        assertEquals(1, badgeLayout.getBadgeViewPool().getSize());
+    }
+
+    @Test
+    public void submitBadges_precomputesTextLayoutsBeforeApplying() throws Exception {
+        final BadgeLayout badgeLayout = newAttachedBadgeLayout();
+        badgeLayout.setBadgeRenderMode(BadgeLayout.BadgeRenderMode.FLATTENED);
+        badgeLayout.setTextPrecomputeExecutor(DIRECT_EXECUTOR);
+        TextLayoutCache.clear();
+
+        ShadowLooper.pauseMainLooper();
+        badgeLayout.submitBadges(Arrays.asList(
+                new BadgeModel.Builder(1).setText("First").build(),
+                new BadgeModel.Builder(2).setText("Second").build()));
+        assertEquals(0, badgeLayout.getBadgeCount());
+        assertEquals(2, TextLayoutCache.size());
+
+        final int hits = BadgeLayout.getTextLayoutCacheStats().getHits();
+        ShadowLooper.unPauseMainLooper();
+        runFrames();
+        assertEquals(2, badgeLayout.getBadgeCount());
+        assertEquals(2, TextLayoutCache.size());
+        assertTrue(BadgeLayout.getTextLayoutCacheStats().getHits() >= hits + 2);
+    }
+
+    @Test
+    public void badgeBackground_sharesConstantStateAcrossBadges() throws Exception {
+        final BadgeLayout badgeLayout = newAttachedBadgeLayout();
+        badgeLayout.setBadgeBackground(android.R.color.black);
+        final BadgeLayout.Badge first = badgeLayout.newBadge().setText("First");
+        badgeLayout.addBadge(first);
+        badgeLayout.addBadge(badgeLayout.newBadge().setText("Second"));
+        runFrames();
+
+        final Drawable firstBackground = getBadgeView(badgeLayout, 0).getBackground();
+        final Drawable secondBackground = getBadgeView(badgeLayout, 1).getBackground();
+        assertNotNull(firstBackground);
+        assertNotSame(firstBackground, secondBackground);
+        assertSame(firstBackground.getConstantState(), secondBackground.getConstantState());
+
+        first.setText("Changed");
+        runFrames();
+        assertSame(firstBackground, getBadgeView(badgeLayout, 0).getBackground());
+    }
+
+    @Test
+    public void scrollToBadge_bringsItIntoTheVisibleRange() throws Exception {
+        final BadgeLayout badgeLayout = newBadgeLayout();
+        final int[] dispatched = new int[]{-1, -1};
+        badgeLayout.addOnVisibleBadgesChangedListener(new BadgeLayout.OnVisibleBadgesChangedListener() {
+            @Override
+            public void onVisibleBadgesChanged(int firstVisibleIndex, int lastVisibleIndex) {
+                dispatched[0] = firstVisibleIndex;
+                dispatched[1] = lastVisibleIndex;
+            }
+        });
+        for (int i = 0; i < 40; i++) {
+            badgeLayout.addBadge(badgeLayout.newBadge().setIcon(newIcon(40)));
+        }
+        measureAndLayout(badgeLayout);
+        assertEquals(0, badgeLayout.getFirstVisibleBadgeIndex());
+        final int lastVisible = badgeLayout.getLastVisibleBadgeIndex();
+        assertTrue(lastVisible < 39);
+        assertEquals(0, dispatched[0]);
+        assertEquals(lastVisible, dispatched[1]);
+
+        badgeLayout.scrollToBadge(39);
+        assertEquals(39, badgeLayout.getLastVisibleBadgeIndex());
+        assertTrue(badgeLayout.getFirstVisibleBadgeIndex() > 0);
+    }
+
+    @Test
+    public void fixedMode_sharesTheWidthByWeight() throws Exception {
+        final BadgeLayout badgeLayout = newBadgeLayout();
+        badgeLayout.setBadgeMode(BadgeLayout.BadgeMode.FIXED);
+        for (int i = 0; i < 3; i++) {
+            badgeLayout.addBadge(badgeLayout.newBadge().setText("Badge " + i));
+        }
+        measureAndLayout(badgeLayout);
+        final int available = badgeLayout.getWidth() - badgeLayout.getSpacing() * 2;
+        int total = 0;
+        for (int i = 0; i < 3; i++) {
+            final int width = getBadgeView(badgeLayout, i).getMeasuredWidth();
+            assertTrue(Math.abs(width - available / 3f) <= 1);
+            total += width;
+        }
+        assertEquals(available, total);
+
+        badgeLayout.getBadgeAt(2).setWeight(2);
+        measureAndLayout(badgeLayout);
+        assertEquals(available / 4, getBadgeView(badgeLayout, 0).getMeasuredWidth());
+        assertEquals(available / 2, getBadgeView(badgeLayout, 2).getMeasuredWidth());
+        assertEquals(badgeLayout.getWidth(), getBadgeView(badgeLayout, 2).getRight());
+    }
+
+    @Test
+    public void scrollingLayer_needsHardwareAcceleration() throws Exception {
+        final BadgeLayout badgeLayout = newBadgeLayout();
+        assertTrue(badgeLayout.isScrollingLayerEnabled());
+        for (int i = 0; i < 40; i++) {
+            badgeLayout.addBadge(badgeLayout.newBadge().setIcon(newIcon(40)));
+        }
+        measureAndLayout(badgeLayout);
+        badgeLayout.scrollToBadge(39);
+
+        final Canvas canvas = new Canvas(Bitmap.createBitmap(badgeLayout.getWidth(), badgeLayout.getHeight(),
+                Bitmap.Config.ARGB_8888));
+        for (int i = 0; i < 2; i++) {
+            // Robolectric doesn't draw the children of views
+            ReflectionHelpers.callInstanceMethod(badgeLayout, "dispatchDraw",
+                    ReflectionHelpers.ClassParameter.from(Canvas.class, canvas));
+        }
+
+        final BadgeLayout.CacheStats stats = badgeLayout.getScrollingLayerStats();
+        assertEquals(0, stats.getSize());
+        assertEquals(0, stats.getHits());
+        assertEquals(2, stats.getMisses());
+        assertEquals(View.LAYER_TYPE_NONE, badgeLayout.getChildAt(0).getLayerType());
+    }
+
+    @Test
+    public void hitTestClicks_dispatchClickOfTheReleasedBadge() throws Exception {
+        final BadgeLayout badgeLayout = newBadgeLayout();
+        badgeLayout.setHitTestClicks(true);
+        final List<BadgeLayout.Badge> clicked = new ArrayList<>();
+        badgeLayout.addOnBadgeClickedListener(new BadgeLayout.OnBadgeClickedListener() {
+            @Override
+            public void onBadgeClicked(BadgeLayout.Badge badge) {
+                clicked.add(badge);
+            }
+        });
+        for (int i = 0; i < 5; i++) {
+            badgeLayout.addBadge(badgeLayout.newBadge().setIcon(newIcon(40)));
+        }
+        measureAndLayout(badgeLayout);
+        final View container = badgeLayout.getChildAt(0);
+
+        tap(container, getBadgeView(badgeLayout, 2), getBadgeView(badgeLayout, 2));
+        assertEquals(Arrays.asList(badgeLayout.getBadgeAt(2)), clicked);
+
+        tap(container, getBadgeView(badgeLayout, 1), getBadgeView(badgeLayout, 3));
+        assertEquals(1, clicked.size());
+    }
+
+    private static BadgeLayout newBadgeLayout() {
+        final BadgeLayout badgeLayout = new BadgeLayout(RuntimeEnvironment.application);
+        badgeLayout.setDiffExecutor(DIRECT_EXECUTOR);
+        return badgeLayout;
+    }
+
+    private static BadgeLayout newAttachedBadgeLayout() {
+        final BadgeLayout badgeLayout = newBadgeLayout();
+        Robolectric.setupActivity(Activity.class).setContentView(badgeLayout);
+        return badgeLayout;
+    }
+
+    /**
+     * Run the frames and tasks posted to the main thread, measuring and laying out attached layouts
+     */
+    private static void runFrames() {
+        ShadowLooper.runUiThreadTasksIncludingDelayedTasks();
+    }
+
+    private static void measureAndLayout(BadgeLayout badgeLayout) {
+        badgeLayout.measure(View.MeasureSpec.makeMeasureSpec(480, View.MeasureSpec.EXACTLY),
+                View.MeasureSpec.makeMeasureSpec(100, View.MeasureSpec.AT_MOST));
+        badgeLayout.layout(0, 0, badgeLayout.getMeasuredWidth(), badgeLayout.getMeasuredHeight());
+    }
+
+    private static Drawable newIcon(int size) {
+        final ShapeDrawable icon = new ShapeDrawable(new RectShape());
+        icon.setIntrinsicWidth(size);
+        icon.setIntrinsicHeight(size);
+        return icon;
+    }
+
+    /**
+     * Touch the container at the center of a badge view, and release it at the center of another one
+     */
+    private static void tap(View container, View downView, View upView) {
+        final MotionEvent down = MotionEvent.obtain(0, 0, MotionEvent.ACTION_DOWN,
+                downView.getLeft() + downView.getWidth() / 2, downView.getTop() + downView.getHeight() / 2, 0);
+        final MotionEvent up = MotionEvent.obtain(0, 0, MotionEvent.ACTION_UP,
+                upView.getLeft() + upView.getWidth() / 2, upView.getTop() + upView.getHeight() / 2, 0);
+        assertTrue(container.onTouchEvent(down));
+        assertTrue(container.onTouchEvent(up));
+        down.recycle();
+        up.recycle();
+    }
+
+    private static View getBadgeView(BadgeLayout badgeLayout, int index) {
+        return ((ViewGroup) badgeLayout.getChildAt(0)).getChildAt(index);
+    }
+
+    private static ImageView findImageView(View view) {
+        if (view instanceof ImageView) {
+            return (ImageView) view;
+        }
+        if (view instanceof ViewGroup) {
+            final ViewGroup viewGroup = (ViewGroup) view;
+            for (int i = 0; i < viewGroup.getChildCount(); i++) {
+                final ImageView imageView = findImageView(viewGroup.getChildAt(i));
+                if (imageView != null) {
+                    return imageView;
+                }
+            }
+        }
+        return null;
+    }
+
+    private static TextView findTextView(View view) {
+        if (view instanceof TextView) {
+            return (TextView) view;
+        }
+        if (view instanceof ViewGroup) {
+            final ViewGroup viewGroup = (ViewGroup) view;
+            for (int i = 0; i < viewGroup.getChildCount(); i++) {
+                final TextView textView = findTextView(viewGroup.getChildAt(i));
+                if (textView != null) {
+                    return textView;
+                }
+            }
+        }
+        return null;
+    }
+
+    private static final class TextChangeCounter implements TextWatcher {
+        private int mCount;
+
+        @Override
+        public void beforeTextChanged(CharSequence s, int start, int count, int after) {
+        }
+
+        @Override
+        public void onTextChanged(CharSequence s, int start, int before, int count) {
+        }
+
+        @Override
+        public void afterTextChanged(Editable s) {
+            mCount++;
+        }
+    }
+}
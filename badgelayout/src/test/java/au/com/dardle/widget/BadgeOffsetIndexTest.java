@@ -0,0 +1,139 @@
+package au.com.dardle.widget;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests of {@link BadgeOffsetIndex}
+ */
+public class BadgeOffsetIndexTest {
+    @Test
+    public void offsets_includeSpacing() throws Exception {
+        final BadgeOffsetIndex index = new BadgeOffsetIndex();
+        index.setSpacing(5);
+        index.insert(0, 10);
+        index.insert(1, 20);
+        index.insert(2, 30);
+
+        assertEquals(0, index.getStart(0));
+        assertEquals(15, index.getStart(1));
+        assertEquals(40, index.getStart(2));
+        assertEquals(70, index.getEnd(2));
+        assertEquals(70, index.getTotalWidth());
+    }
+
+    @Test
+    public void offsets_followInsertRemoveAndResize() throws Exception {
+        final BadgeOffsetIndex index = new BadgeOffsetIndex();
+        index.insert(0, 10);
+        index.insert(1, 10);
+        assertEquals(10, index.getStart(1));
+
+        index.insert(0, 5);
+        assertEquals(5, index.getStart(1));
+        assertEquals(15, index.getStart(2));
+
+        index.setWidth(1, 20);
+        assertEquals(25, index.getStart(2));
+
+        index.remove(0);
+        assertEquals(0, index.getStart(0));
+        assertEquals(20, index.getStart(1));
+        assertEquals(30, index.getTotalWidth());
+    }
+
+    @Test
+    public void indexAt_assignsSpacingToPreviousBadge() throws Exception {
+        final BadgeOffsetIndex index = new BadgeOffsetIndex();
+        assertEquals(-1, index.indexAt(0));
+
+        index.setSpacing(4);
+        index.insert(0, 10);
+        index.insert(1, 10);
+
+        assertEquals(0, index.indexAt(-1));
+        assertEquals(0, index.indexAt(9));
+        assertEquals(0, index.indexAt(13));
+        assertEquals(1, index.indexAt(14));
+        assertEquals(1, index.indexAt(1000));
+    }
+
+    @Test
+    public void lastIndexEndingBefore_searchesFirstBadges() throws Exception {
+        final BadgeOffsetIndex index = new BadgeOffsetIndex();
+        index.insert(0, 10);
+        index.insert(1, 10);
+        index.insert(2, 10);
+
+        assertEquals(-1, index.lastIndexEndingBefore(9, 3));
+        assertEquals(0, index.lastIndexEndingBefore(10, 3));
+        assertEquals(1, index.lastIndexEndingBefore(29, 3));
+        assertEquals(1, index.lastIndexEndingBefore(100, 2));
+        assertEquals(-1, index.lastIndexEndingBefore(100, 0));
+    }
+
+    @Test
+    public void uniformWidth_matchesIndividualWidths() throws Exception {
+        final BadgeOffsetIndex uniform = new BadgeOffsetIndex();
+        final BadgeOffsetIndex individual = new BadgeOffsetIndex();
+        uniform.setSpacing(3);
+        individual.setSpacing(3);
+        uniform.setUniformWidth(12);
+        for (int i = 0; i < 10; i++) {
+            uniform.insert(i, 0);
+            individual.insert(i, 12);
+        }
+
+        for (int i = 0; i < 10; i++) {
+            assertEquals(individual.getStart(i), uniform.getStart(i));
+            assertEquals(individual.getEnd(i), uniform.getEnd(i));
+        }
+        for (int offset = -5; offset < 160; offset++) {
+            assertEquals(individual.indexAt(offset), uniform.indexAt(offset));
+            assertEquals(individual.lastIndexEndingBefore(offset, 7), uniform.lastIndexEndingBefore(offset, 7));
+        }
+    }
+
+    @Test
+    public void randomEdits_matchPrefixSums() throws Exception {
+        final Random random = new Random(42);
+        final BadgeOffsetIndex index = new BadgeOffsetIndex();
+        final List<Integer> widths = new ArrayList<>();
+        index.setSpacing(2);
+
+        for (int step = 0; step < 2000; step++) {
+            final int operation = random.nextInt(3);
+            if (operation == 0 || widths.isEmpty()) {
+                final int position = random.nextInt(widths.size() + 1);
+                final int width = random.nextInt(50);
+                widths.add(position, width);
+                index.insert(position, width);
+            } else if (operation == 1) {
+                final int position = random.nextInt(widths.size());
+                widths.remove(position);
+                index.remove(position);
+            } else {
+                final int position = random.nextInt(widths.size());
+                final int width = random.nextInt(50);
+                widths.set(position, width);
+                index.setWidth(position, width);
+            }
+
+            if (widths.isEmpty()) {
+                continue;
+            }
+            final int position = random.nextInt(widths.size());
+            int start = 0;
+            for (int i = 0; i < position; i++) {
+                start += widths.get(i) + 2;
+            }
+            assertEquals(start, index.getStart(position));
+            assertEquals(widths.size(), index.size());
+        }
+    }
+}
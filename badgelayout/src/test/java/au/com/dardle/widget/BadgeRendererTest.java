@@ -0,0 +1,103 @@
+package au.com.dardle.widget;
+
+import android.app.Activity;
+import android.content.Context;
+import android.content.ContextWrapper;
+import android.content.res.TypedArray;
+import android.graphics.Bitmap;
+import android.graphics.drawable.ShapeDrawable;
+import android.graphics.drawable.shapes.RectShape;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests of {@link BadgeRenderer}
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = 25)
+public class BadgeRendererTest {
+    @Test
+    public void render_sizesRowFromBadgesAndSpacing() throws Exception {
+        final BadgeRenderer renderer = new BadgeRenderer.Builder(RuntimeEnvironment.application)
+                .setSpacing(8)
+                .build();
+
+        final Bitmap bitmap = renderer.render(Arrays.asList(
+                new BadgeModel.Builder(1).setIcon(newIcon(10, 20)).build(),
+                new BadgeModel.Builder(2).setIcon(newIcon(30, 10)).build()));
+        assertEquals(10 + 8 + 30, bitmap.getWidth());
+        assertEquals(20, bitmap.getHeight());
+    }
+
+    @Test
+    public void render_reusesBitmapOfSameSize() throws Exception {
+        final BadgeRenderer renderer = new BadgeRenderer.Builder(RuntimeEnvironment.application).build();
+        final List<BadgeModel> models = Collections.singletonList(
+                new BadgeModel.Builder(1).setIcon(newIcon(10, 10)).build());
+
+        final Bitmap bitmap = renderer.render(models);
+        assertSame(bitmap, renderer.render(models, bitmap));
+    }
+
+    @Test
+    public void render_loadsIconSourcesOnAnyThread() throws Exception {
+        final BadgeRenderer renderer = new BadgeRenderer.Builder(RuntimeEnvironment.application).build();
+        final List<BadgeModel> models = Collections.singletonList(new BadgeModel.Builder(1)
+                .setIconSource(IconSource.fromResource(android.R.drawable.btn_default))
+                .build());
+        final Bitmap[] backgroundBitmap = new Bitmap[1];
+
+        final Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                backgroundBitmap[0] = renderer.render(models);
+            }
+        });
+        thread.start();
+        thread.join();
+
+        final Bitmap bitmap = renderer.render(models);
+        assertNotNull(backgroundBitmap[0]);
+        assertEquals(bitmap.getWidth(), backgroundBitmap[0].getWidth());
+        assertEquals(bitmap.getHeight(), backgroundBitmap[0].getHeight());
+    }
+
+    @Test
+    public void newThemedApplicationContext_keepsThemeButNotActivity() throws Exception {
+        final Activity activity = Robolectric.buildActivity(Activity.class).create().get();
+        activity.setTheme(android.R.style.Theme_Holo_Light);
+
+        final int textColor = resolveColor(activity, android.R.attr.textColorPrimary);
+        assertNotEquals(resolveColor(RuntimeEnvironment.application, android.R.attr.textColorPrimary), textColor);
+
+        final Context context = BadgeRenderer.Builder.newThemedApplicationContext(activity);
+        assertNotSame(activity, context);
+        assertSame(RuntimeEnvironment.application, ((ContextWrapper) context).getBaseContext());
+        assertEquals(textColor, resolveColor(context, android.R.attr.textColorPrimary));
+    }
+
+    private static ShapeDrawable newIcon(int width, int height) {
+        final ShapeDrawable icon = new ShapeDrawable(new RectShape());
+        icon.setIntrinsicWidth(width);
+        icon.setIntrinsicHeight(height);
+        return icon;
+    }
+
+    private static int resolveColor(Context context, int attr) {
+        final TypedArray typedArray = context.obtainStyledAttributes(new int[]{attr});
+        final int color = typedArray.getColor(0, 0);
+        typedArray.recycle();
+        return color;
+    }
+}
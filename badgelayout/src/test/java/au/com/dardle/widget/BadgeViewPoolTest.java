@@ -0,0 +1,190 @@
+package au.com.dardle.widget;
+
+import android.app.Activity;
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.os.Looper;
+import android.os.MessageQueue;
+import android.view.ContextThemeWrapper;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.LinearLayout;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+import org.robolectric.util.ReflectionHelpers;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests of {@link BadgeViewPool}
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = 25)
+public class BadgeViewPoolTest {
+    @Test
+    public void acquire_countsHitsAndMissesOfAllRenderModes() throws Exception {
+        final Context context = RuntimeEnvironment.application;
+        final BadgeViewPool pool = new BadgeViewPool();
+        final View view = new View(context);
+
+        assertNull(pool.acquire(BadgeLayout.BadgeRenderMode.FLATTENED, context));
+        assertTrue(pool.release(BadgeLayout.BadgeRenderMode.FLATTENED, view));
+        assertNull(pool.acquire(BadgeLayout.BadgeRenderMode.VIEWS, context));
+        assertSame(view, pool.acquire(BadgeLayout.BadgeRenderMode.FLATTENED, context));
+
+        assertEquals(1, pool.getHitCount());
+        assertEquals(2, pool.getMissCount());
+        assertEquals(0, pool.getSize());
+    }
+
+    @Test
+    public void acquire_rejectsViewsOfAnotherContext() throws Exception {
+        final Context context = RuntimeEnvironment.application;
+        final Context otherContext = new ContextThemeWrapper(context, 0);
+        final BadgeViewPool pool = new BadgeViewPool();
+        pool.release(BadgeLayout.BadgeRenderMode.VIEWS, new View(context));
+
+        assertNull(pool.acquire(BadgeLayout.BadgeRenderMode.VIEWS, otherContext));
+        assertEquals(0, pool.getSize());
+    }
+
+    @Test
+    public void release_dropsViewsOfAnotherContext() throws Exception {
+        final Context context = RuntimeEnvironment.application;
+        final Context otherContext = new ContextThemeWrapper(context, 0);
+        final BadgeViewPool pool = new BadgeViewPool();
+        pool.release(BadgeLayout.BadgeRenderMode.VIEWS, new View(context));
+        pool.release(BadgeLayout.BadgeRenderMode.VIEWS, new View(context));
+
+        final View view = new View(otherContext);
+        pool.release(BadgeLayout.BadgeRenderMode.VIEWS, view);
+        assertEquals(1, pool.getSize());
+        assertSame(view, pool.acquire(BadgeLayout.BadgeRenderMode.VIEWS, otherContext));
+    }
+
+    @Test
+    public void removedBadges_reuseTheirViews() throws Exception {
+        final BadgeLayout badgeLayout = new BadgeLayout(RuntimeEnvironment.application);
+        final BadgeViewPool pool = badgeLayout.getBadgeViewPool();
+        final BadgeLayout.Badge badge = badgeLayout.newBadge().setText("Badge");
+        badgeLayout.addBadge(badge);
+        assertEquals(1, pool.getMissCount());
+
+        badgeLayout.removeBadge(badge);
+        assertEquals(1, pool.getSize());
+
+        badgeLayout.addBadge(badgeLayout.newBadge().setText("Badge"));
+        assertEquals(1, pool.getHitCount());
+        assertEquals(0, pool.getSize());
+    }
+
+    @Test
+    public void trimMemory_clearsEveryPool() throws Exception {
+        final Activity activity = Robolectric.setupActivity(Activity.class);
+        final BadgeLayout first = new BadgeLayout(activity);
+        final BadgeLayout second = new BadgeLayout(activity);
+        activity.setContentView(first);
+        activity.addContentView(second, new ViewGroup.LayoutParams(0, 0));
+
+        final BadgeLayout.Badge badge = first.newBadge().setText("Badge");
+        first.addBadge(badge);
+        first.removeBadge(badge);
+        final BadgeViewPool detachedPool = new BadgeViewPool();
+        detachedPool.release(BadgeLayout.BadgeRenderMode.VIEWS, new View(activity));
+        assertEquals(1, first.getBadgeViewPool().getSize());
+
+        RuntimeEnvironment.application.onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW);
+        assertEquals(0, first.getBadgeViewPool().getSize());
+        assertEquals(0, detachedPool.getSize());
+        assertEquals(0, first.getPoolStats().getBadgePoolSize());
+    }
+
+    @Test
+    public void recycleAllBadges_sharesViewsWithOtherLayouts() throws Exception {
+        final BadgeViewPool pool = new BadgeViewPool();
+        final BadgeLayout first = new BadgeLayout(RuntimeEnvironment.application);
+        final BadgeLayout second = new BadgeLayout(RuntimeEnvironment.application);
+        first.setBadgeViewPool(pool);
+        second.setBadgeViewPool(pool);
+        first.addBadge(first.newBadge().setText("First"));
+        first.addBadge(first.newBadge().setText("Second"));
+
+        first.recycleAllBadges();
+        assertEquals(0, first.getBadgeCount());
+        final int pooledCount = pool.getSize();
+        assertTrue(pooledCount >= 2);
+
+        second.addBadge(second.newBadge().setText("Third"));
+        second.addBadge(second.newBadge().setText("Fourth"));
+        assertEquals(2, pool.getHitCount());
+        assertEquals(pooledCount - 2, pool.getSize());
+    }
+
+    @Test
+    public void detach_trimsOwnedPoolOnly() throws Exception {
+        final Activity activity = Robolectric.setupActivity(Activity.class);
+        final BadgeViewPool sharedPool = new BadgeViewPool();
+        final BadgeLayout owning = new BadgeLayout(activity);
+        final BadgeLayout sharing = new BadgeLayout(activity);
+        sharing.setBadgeViewPool(sharedPool);
+        final LinearLayout parent = new LinearLayout(activity);
+        parent.addView(owning);
+        parent.addView(sharing);
+        activity.setContentView(parent);
+
+        for (int i = 0; i < 3; i++) {
+            owning.addBadge(owning.newBadge().setText("Badge"));
+            sharing.addBadge(sharing.newBadge().setText("Badge"));
+        }
+        owning.recycleAllBadges();
+        sharing.recycleAllBadges();
+        final int sharedCount = sharedPool.getSize();
+        assertTrue(owning.getBadgeViewPool().getSize() >= 3);
+
+        parent.removeAllViews();
+        assertEquals(0, owning.getBadgeViewPool().getSize());
+        assertEquals(sharedCount, sharedPool.getSize());
+    }
+
+    @Test
+    public void prewarm_fillsThePoolWhileIdle() throws Exception {
+        final Activity activity = Robolectric.setupActivity(Activity.class);
+        final BadgeLayout badgeLayout = new BadgeLayout(activity);
+        activity.setContentView(badgeLayout);
+        final BadgeViewPool pool = badgeLayout.getBadgeViewPool();
+
+        badgeLayout.prewarm(3);
+        assertEquals(0, pool.getSize());
+        runIdleHandlers();
+        assertEquals(3, pool.getSize(BadgeLayout.BadgeRenderMode.VIEWS));
+
+        for (int i = 0; i < 3; i++) {
+            badgeLayout.addBadge(badgeLayout.newBadge().setText("Badge"));
+        }
+        assertEquals(3, pool.getHitCount());
+        assertEquals(0, pool.getMissCount());
+    }
+
+    /**
+     * Run the idle handlers of the main thread until they are done, as Robolectric doesn't
+     */
+    private static void runIdleHandlers() {
+        final List<MessageQueue.IdleHandler> idleHandlers =
+                ReflectionHelpers.getField(Looper.myQueue(), "mIdleHandlers");
+        while (!idleHandlers.isEmpty()) {
+            for (MessageQueue.IdleHandler idleHandler : new ArrayList<>(idleHandlers)) {
+                if (!idleHandler.queueIdle()) {
+                    idleHandlers.remove(idleHandler);
+                }
+            }
+        }
+    }
+}
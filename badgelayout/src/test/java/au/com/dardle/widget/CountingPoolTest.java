@@ -0,0 +1,95 @@
+package au.com.dardle.widget;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests of {@link CountingPool}
+ */
+public class CountingPoolTest {
+    @Test
+    public void acquire_countsHitsAndMisses() throws Exception {
+        final CountingPool<Object> pool = new CountingPool<>(2);
+        assertNull(pool.acquire());
+
+        final Object instance = new Object();
+        assertTrue(pool.release(instance));
+        assertSame(instance, pool.acquire());
+
+        assertEquals(1, pool.getHitCount());
+        assertEquals(1, pool.getMissCount());
+        assertEquals(0, pool.size());
+    }
+
+    @Test
+    public void release_dropsInstancesBeyondMaxSize() throws Exception {
+        final CountingPool<Object> pool = new CountingPool<>(1);
+
+        assertTrue(pool.release(new Object()));
+        assertFalse(pool.release(new Object()));
+        assertEquals(1, pool.size());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void release_rejectsPooledInstance() throws Exception {
+        final CountingPool<Object> pool = new CountingPool<>(2);
+        final Object instance = new Object();
+
+        pool.release(instance);
+        pool.release(instance);
+    }
+
+    @Test
+    public void setMaxPoolSize_dropsInstancesWhichNoLongerFit() throws Exception {
+        final CountingPool<Object> pool = new CountingPool<>(3);
+        final Object first = new Object();
+        pool.release(first);
+        pool.release(new Object());
+        pool.release(new Object());
+
+        pool.setMaxPoolSize(1);
+        assertEquals(1, pool.size());
+        assertSame(first, pool.acquire());
+
+        pool.setMaxPoolSize(2);
+        assertTrue(pool.release(new Object()));
+        assertTrue(pool.release(new Object()));
+        assertFalse(pool.release(new Object()));
+    }
+
+    @Test
+    public void trimToSize_keepsFirstPooledInstances() throws Exception {
+        final CountingPool<Object> pool = new CountingPool<>(3);
+        final Object first = new Object();
+        pool.release(first);
+        pool.release(new Object());
+        pool.release(new Object());
+
+        pool.trimToSize(1);
+        assertEquals(1, pool.size());
+        assertSame(first, pool.acquire());
+
+        pool.trimToSize(2);
+        assertEquals(0, pool.size());
+        assertTrue(pool.release(new Object()));
+        assertTrue(pool.release(new Object()));
+        assertTrue(pool.release(new Object()));
+    }
+
+    @Test
+    public void clear_dropsAllInstances() throws Exception {
+        final CountingPool<Object> pool = new CountingPool<>(2);
+        pool.release(new Object());
+        pool.release(new Object());
+
+        pool.clear();
+        assertEquals(0, pool.size());
+        assertNull(pool.acquire());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void constructor_rejectsEmptyPool() throws Exception {
+        new CountingPool<>(0);
+    }
+}
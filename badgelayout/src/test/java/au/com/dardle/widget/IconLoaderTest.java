@@ -0,0 +1,218 @@
+package au.com.dardle.widget;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Rect;
+import android.graphics.drawable.ColorDrawable;
+import android.graphics.drawable.Drawable;
+import android.graphics.drawable.ShapeDrawable;
+import android.graphics.drawable.shapes.RectShape;
+import android.support.annotation.NonNull;
+import android.view.ContextThemeWrapper;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowLooper;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests of {@link IconLoader}
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = 25)
+public class IconLoaderTest {
+    private static final Executor DIRECT_EXECUTOR = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    @Before
+    public void setUp() throws Exception {
+        IconLoader.clear();
+    }
+
+    @Test
+    public void getRasterizedBounds_shrinksToFitTheSlot() throws Exception {
+        final Rect bounds = new Rect();
+        IconLoader.getRasterizedBounds(newDrawable(400, 200), 50, bounds);
+        assertEquals(new Rect(0, 0, 50, 25), bounds);
+    }
+
+    @Test
+    public void getRasterizedBounds_neverEnlarges() throws Exception {
+        final Rect bounds = new Rect();
+        IconLoader.getRasterizedBounds(newDrawable(20, 10), 50, bounds);
+        assertEquals(new Rect(0, 0, 20, 10), bounds);
+    }
+
+    @Test
+    public void getRasterizedBounds_fillsTheSlotWithoutIntrinsicSize() throws Exception {
+        final Rect bounds = new Rect();
+        IconLoader.getRasterizedBounds(new ColorDrawable(), 50, bounds);
+        assertEquals(new Rect(0, 0, 50, 50), bounds);
+    }
+
+    @Test
+    public void load_deliversOnTheMainThreadUnlessCancelled() throws Exception {
+        final Context context = RuntimeEnvironment.application;
+        final int[] deliveries = new int[2];
+
+        ShadowLooper.pauseMainLooper();
+        IconLoader.load(context, newUnreadableSource("delivered"), 50, DIRECT_EXECUTOR, new IconLoader.Callback() {
+            @Override
+            public void onIconLoaded(@NonNull IconSource iconSource, Bitmap bitmap) {
+                assertNull(bitmap);
+                deliveries[0]++;
+            }
+        });
+        final IconLoader.Request request = IconLoader.load(context, newUnreadableSource("cancelled"), 50,
+                DIRECT_EXECUTOR, new IconLoader.Callback() {
+                    @Override
+                    public void onIconLoaded(@NonNull IconSource iconSource, Bitmap bitmap) {
+                        deliveries[1]++;
+                    }
+                });
+        request.cancel();
+        assertEquals(0, deliveries[0]);
+
+        ShadowLooper.unPauseMainLooper();
+        assertEquals(1, deliveries[0]);
+        assertEquals(0, deliveries[1]);
+    }
+
+    @Test
+    public void load_skipsCancelledRequestsNotStartedYet() throws Exception {
+        final Runnable[] pending = new Runnable[1];
+        final int[] opened = new int[1];
+        final IconLoader.Request request = IconLoader.load(RuntimeEnvironment.application,
+                new IconSource() {
+                    @NonNull
+                    @Override
+                    public String getKey() {
+                        return "pending";
+                    }
+
+                    @NonNull
+                    @Override
+                    public InputStream openStream(@NonNull Context context) throws IOException {
+                        opened[0]++;
+                        throw new IOException();
+                    }
+                },
+                50,
+                new Executor() {
+                    @Override
+                    public void execute(Runnable command) {
+                        pending[0] = command;
+                    }
+                },
+                new IconLoader.Callback() {
+                    @Override
+                    public void onIconLoaded(@NonNull IconSource iconSource, Bitmap bitmap) {
+                        fail();
+                    }
+                });
+
+        request.cancel();
+        pending[0].run();
+        ShadowLooper.runUiThreadTasksIncludingDelayedTasks();
+        assertEquals(0, opened[0]);
+    }
+
+    @Test
+    public void rasterizeIcons_isOptIn() throws Exception {
+        assertFalse(new BadgeLayout(RuntimeEnvironment.application).isRasterizeIcons());
+    }
+
+    @Test
+    public void rasterize_fitsTheDrawableInTheSlot() throws Exception {
+        final Bitmap bitmap = IconLoader.rasterize(RuntimeEnvironment.application,
+                newRasterizedSource("fitted", 40, 20), 10, false, true);
+        assertNotNull(bitmap);
+        assertEquals(10, bitmap.getWidth());
+        assertEquals(5, bitmap.getHeight());
+    }
+
+    @Test
+    public void rasterize_rendersOncePerSizeAndTheme() throws Exception {
+        final Context context = RuntimeEnvironment.application;
+        final Context themedContext = new ContextThemeWrapper(context, android.R.style.Theme_Holo_Light);
+        final IconSource iconSource = newRasterizedSource("themed", 10, 10);
+
+        final Bitmap bitmap = IconLoader.rasterize(context, iconSource, 10, false, true);
+        assertSame(bitmap, IconLoader.rasterize(context, iconSource, 10, true, false));
+        assertNotSame(bitmap, IconLoader.rasterize(context, iconSource, 20, false, true));
+        assertNotSame(bitmap, IconLoader.rasterize(themedContext, iconSource, 10, false, true));
+    }
+
+    @Test
+    public void clearRasterized_dropsRasterizedIcons() throws Exception {
+        final Context context = RuntimeEnvironment.application;
+        final IconSource iconSource = newRasterizedSource("cleared", 10, 10);
+        final Bitmap bitmap = IconLoader.rasterize(context, iconSource, 10, false, true);
+
+        IconLoader.clearRasterized();
+        assertEquals(0, IconLoader.size());
+        assertNotSame(bitmap, IconLoader.rasterize(context, iconSource, 10, false, true));
+    }
+
+    private static Drawable newDrawable(int width, int height) {
+        final ShapeDrawable drawable = new ShapeDrawable(new RectShape());
+        drawable.setIntrinsicWidth(width);
+        drawable.setIntrinsicHeight(height);
+        return drawable;
+    }
+
+    private static IconSource newUnreadableSource(final String key) {
+        return new IconSource() {
+            @NonNull
+            @Override
+            public String getKey() {
+                return key;
+            }
+
+            @NonNull
+            @Override
+            public InputStream openStream(@NonNull Context context) throws IOException {
+                throw new IOException("Unreadable");
+            }
+        };
+    }
+
+    private static IconSource newRasterizedSource(final String key, final int width, final int height) {
+        return new IconSource() {
+            @NonNull
+            @Override
+            public String getKey() {
+                return key;
+            }
+
+            @NonNull
+            @Override
+            public InputStream openStream(@NonNull Context context) throws IOException {
+                throw new IOException("Not an image");
+            }
+
+            @Override
+            boolean isRasterized(@NonNull Context context) {
+                return true;
+            }
+
+            @Override
+            Drawable loadDrawable(@NonNull Context context) {
+                return newDrawable(width, height);
+            }
+        };
+    }
+}
@@ -0,0 +1,109 @@
+package au.com.dardle.widget;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests of {@link PositionCache}
+ */
+public class PositionCacheTest {
+    private static final class Item {
+        int mPosition;
+    }
+
+    private final List<Item> mItems = new ArrayList<>();
+    private PositionCache<Item> mCache;
+
+    @Before
+    public void setUp() throws Exception {
+        mCache = new PositionCache<Item>() {
+            @Override
+            int getCachedPosition(Item item) {
+                return item.mPosition;
+            }
+
+            @Override
+            void setCachedPosition(Item item, int position) {
+                item.mPosition = position;
+            }
+        };
+    }
+
+    @Test
+    public void indexOf_afterAppends() throws Exception {
+        for (int i = 0; i < 3; i++) {
+            insert(i);
+        }
+
+        for (int i = 0; i < 3; i++) {
+            assertEquals(i, mCache.indexOf(mItems, mItems.get(i)));
+        }
+    }
+
+    @Test
+    public void indexOf_afterTwoInsertsAtFront() throws Exception {
+        final Item first = insert(0);
+        assertEquals(0, mCache.indexOf(mItems, first));
+
+        final Item second = insert(0);
+        final Item third = insert(0);
+
+        assertEquals(0, mCache.indexOf(mItems, third));
+        assertEquals(1, mCache.indexOf(mItems, second));
+        assertEquals(2, mCache.indexOf(mItems, first));
+    }
+
+    @Test
+    public void indexOf_afterRemove() throws Exception {
+        insert(0);
+        insert(1);
+        final Item last = insert(2);
+        assertEquals(2, mCache.indexOf(mItems, last));
+
+        mItems.remove(0);
+        mCache.onRemoved(0);
+        assertEquals(1, mCache.indexOf(mItems, last));
+    }
+
+    @Test
+    public void indexOf_afterInvalidate() throws Exception {
+        insert(0);
+        final Item item = insert(1);
+
+        mItems.remove(0);
+        mCache.invalidate();
+        assertEquals(0, mCache.indexOf(mItems, item));
+    }
+
+    @Test
+    public void indexOf_afterRandomEdits() throws Exception {
+        final Random random = new Random(11);
+        for (int step = 0; step < 2000; step++) {
+            if (mItems.isEmpty() || random.nextInt(3) > 0) {
+                insert(random.nextInt(mItems.size() + 1));
+            } else {
+                final int index = random.nextInt(mItems.size());
+                mItems.remove(index);
+                mCache.onRemoved(index);
+            }
+
+            if (!mItems.isEmpty()) {
+                final int index = random.nextInt(mItems.size());
+                assertEquals(index, mCache.indexOf(mItems, mItems.get(index)));
+            }
+        }
+    }
+
+    private Item insert(int index) {
+        final Item item = new Item();
+        mItems.add(index, item);
+        mCache.onInserted(mItems, index);
+        return item;
+    }
+}
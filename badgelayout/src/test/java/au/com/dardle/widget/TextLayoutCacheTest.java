@@ -0,0 +1,69 @@
+package au.com.dardle.widget;
+
+import android.graphics.Typeface;
+import android.text.StaticLayout;
+import android.text.TextPaint;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests of {@link TextLayoutCache}
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = 25)
+public class TextLayoutCacheTest {
+    @Before
+    public void setUp() throws Exception {
+        TextLayoutCache.clear();
+    }
+
+    @Test
+    public void obtain_reusesLayoutOfSameKey() throws Exception {
+        final int hitCount = TextLayoutCache.getHitCount();
+        final StaticLayout layout = TextLayoutCache.obtain("Badge", newPaint(14, Typeface.DEFAULT), 100);
+
+        assertSame(layout, TextLayoutCache.obtain("Badge", newPaint(14, Typeface.DEFAULT), 100));
+        assertEquals(hitCount + 1, TextLayoutCache.getHitCount());
+        assertEquals(1, TextLayoutCache.size());
+    }
+
+    @Test
+    public void obtain_keysByTextSizeTypefaceAndWidth() throws Exception {
+        final StaticLayout layout = TextLayoutCache.obtain("Badge", newPaint(14, Typeface.DEFAULT), 100);
+
+        assertNotSame(layout, TextLayoutCache.obtain("Other", newPaint(14, Typeface.DEFAULT), 100));
+        assertNotSame(layout, TextLayoutCache.obtain("Badge", newPaint(16, Typeface.DEFAULT), 100));
+        assertNotSame(layout, TextLayoutCache.obtain("Badge", newPaint(14, Typeface.DEFAULT_BOLD), 100));
+        assertNotSame(layout, TextLayoutCache.obtain("Badge", newPaint(14, Typeface.DEFAULT), 50));
+        assertEquals(5, TextLayoutCache.size());
+    }
+
+    @Test
+    public void obtain_keepsItsOwnPaint() throws Exception {
+        final TextPaint paint = newPaint(14, Typeface.DEFAULT);
+        final StaticLayout layout = TextLayoutCache.obtain("Badge", paint, 100);
+
+        assertNotSame(paint, layout.getPaint());
+    }
+
+    @Test
+    public void clear_dropsAllLayouts() throws Exception {
+        TextLayoutCache.obtain("Badge", newPaint(14, Typeface.DEFAULT), 100);
+
+        TextLayoutCache.clear();
+        assertEquals(0, TextLayoutCache.size());
+    }
+
+    private static TextPaint newPaint(float textSize, Typeface typeface) {
+        final TextPaint paint = new TextPaint();
+        paint.setTextSize(textSize);
+        paint.setTypeface(typeface);
+        return paint;
+    }
+}